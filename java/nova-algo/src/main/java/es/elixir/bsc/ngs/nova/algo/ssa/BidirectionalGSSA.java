@@ -0,0 +1,200 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Bidirectional Generalized Succinct Suffix Array.
+ * </p>
+ * <p>
+ * Keeps the BWT of the text where every string is reversed in place
+ * (strings' terminators stay at their positions) along with the forward one.
+ * The string is represented by the synchronized interval {sp, rsp, size},
+ * where [sp, sp + size) is the SA interval of the string in the forward BWT
+ * and [rsp, rsp + size) is the SA interval of the reversed string in the
+ * reverse BWT. The interval may be extended with a symbol in both directions.
+ * </p>
+ * <p>
+ * Both texts have the same symbols' frequencies, so the reverse BWT shares
+ * the buckets' positions with the forward one.
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class BidirectionalGSSA {
+
+    private final GSSA gssa;
+    private final HuffmanShapedWaveletTree reverse; // wavelet tree that keeps the reverse bwt
+
+    private final int[] symbols; // all symbols the BWT contains (including '\0')
+
+    /**
+     * Create Bidirectional Generalized Succinct Suffix Array.
+     * 
+     * @param gssa the forward generalized succinct suffix array
+     * @param reverse the wavelet tree with the BWT of the reversed strings
+     */
+    public BidirectionalGSSA(GSSA gssa, HuffmanShapedWaveletTree reverse) {
+        if (gssa.getLength() != reverse.shape.length) {
+            throw new IllegalArgumentException("the reverse BWT length differs from the forward one");
+        }
+
+        this.gssa = gssa;
+        this.reverse = reverse;
+
+        gssa.buckets();
+
+        final int[] alphabet = gssa.alphabet();
+        symbols = new int[alphabet.length + 1];
+        System.arraycopy(alphabet, 0, symbols, 1, alphabet.length);
+    }
+
+    public GSSA getGSSA() {
+        return gssa;
+    }
+
+    /**
+     * @return the synchronized interval of the empty string.
+     */
+    public long[] interval() {
+        return new long[] {0, 0, gssa.getLength()};
+    }
+
+    /**
+     * Finds the synchronized interval of the string.
+     * 
+     * @param str the string to find
+     * 
+     * @return the synchronized interval {sp, rsp, size} or null if not found
+     */
+    public long[] interval(byte[] str) {
+        final long[] interval = interval();
+        for (int i = str.length - 1; i >= 0; i--) {
+            if (!extendLeft(str[i] & 0xFF, interval)) {
+                return null;
+            }
+        }
+        return interval;
+    }
+
+    /**
+     * Extends the string with the symbol prepended (cS).
+     * The strings' terminator can not be used for the extension.
+     * 
+     * @param symbol the symbol to prepend
+     * @param interval the synchronized interval of the string to be updated
+     * 
+     * @return false if the extended string is not found 
+     *         (the interval is left unchanged)
+     */
+    public boolean extendLeft(int symbol, long[] interval) {
+        return extend(gssa.tree, symbol, interval, 0, 1);
+    }
+
+    /**
+     * Extends the string with the symbol appended (Sc).
+     * The strings' terminator can not be used for the extension.
+     * 
+     * @param symbol the symbol to append
+     * @param interval the synchronized interval of the string to be updated
+     * 
+     * @return false if the extended string is not found
+     *         (the interval is left unchanged)
+     */
+    public boolean extendRight(int symbol, long[] interval) {
+        return extend(reverse, symbol, interval, 1, 0);
+    }
+
+    /**
+     * Locates all occurrences of the string in the forward text.
+     * 
+     * @param interval the synchronized interval of the string
+     * 
+     * @return the array[nth][pos] with all occurrences of the string
+     *         or null if no matches found
+     * 
+     * @throws IOException 
+     */
+    public long[][] find(long[] interval) throws IOException {
+        if (interval == null || interval[2] <= 0) {
+            return null;
+        }
+        gssa.index();
+        return gssa.find(interval[0], interval[0] + interval[2] - 1);
+    }
+
+    /**
+     * Performs the backward step in one of the BWTs and adjusts the interval
+     * in another one by the number of the extensions with smaller symbols.
+     * 
+     * @param bwt the tree where the backward step is made
+     * @param symbol the symbol to extend with
+     * @param interval the synchronized interval
+     * @param i the index of the stepped interval start
+     * @param j the index of the adjusted interval start
+     */
+    private boolean extend(HuffmanShapedWaveletTree bwt, int symbol, long[] interval, int i, int j) {
+        if (symbol == 0) {
+            return false;
+        }
+
+        // occ() of the empty prefix (sp = -1) is -1 for every symbol
+        final long sp = interval[i] - 1;
+        final long ep = interval[i] + interval[2] - 1;
+
+        // both interval bounds are ranked in one descent of the tree
+        final long[] pair = {sp, ep};
+        bwt.occPair(symbol, pair);
+
+        final long lo = pair[0];
+        final long hi = pair[1];
+        if (hi <= lo) {
+            return false;
+        }
+
+        long smaller = 0;
+        for (int s : symbols) {
+            if (s >= symbol) {
+                break;
+            }
+            pair[0] = sp;
+            pair[1] = ep;
+            bwt.occPair(s, pair);
+            smaller += pair[1] - pair[0];
+        }
+
+        interval[i] = gssa.c[symbol] + lo + 1;
+        interval[j] += smaller;
+        interval[2] = hi - lo;
+
+        return true;
+    }
+}
@@ -31,18 +31,32 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
- * Generalized Succinct Suffix Array implementation
+ * Generalized Succinct Suffix Array implementation.
+ * 
+ * The auxiliary structures are built lazily by the first query under
+ * the lock, so the instance may be shared between threads. 
+ * The {@link #init()} builds them eagerly.
  * 
  * @author Dmitry Repchevsky
  */
 
 public class GSSA {
     
-    private long[] c; // ends of buckets' positions in SA
+    long[] c; // ends of buckets' positions in SA
     private long[] e; // sorted ends of the strings ('\0' positions)
+    private long z = -1; // '\0' rank of the first string start (suffix 0) in the BWT
     
+    private int kmer_length; // the desired length of k-mers in the lookup table
+    private volatile KmerTable kmers; // lookup table for the first steps of backward search
+    private volatile GSSADocuments documents; // the document array for counting (built lazily)
+
+    private volatile boolean initialized; // all the structures above are built
+
+    private volatile GSSACache cache; // optional cache of the search results
+    private volatile Object block; // the key of this block's results in the cache
+
     private GSSAIndex index;
-    private final HuffmanShapedWaveletTree tree; // wavelet tree that keeps the bwt
+    final HuffmanShapedWaveletTree tree; // wavelet tree that keeps the bwt
 
     /**
      * Create Generalized Succinct Suffix Array from existing tree and index.
@@ -55,11 +69,204 @@ public class GSSA {
         this.tree = tree;
         this.index = index;
     }
+
+    /**
+     * Create Generalized Succinct Suffix Array from existing tree and index
+     * with precalculated buckets' positions and strings' terminators so no
+     * reconstruction is needed on the first query.
+     * 
+     * @param tree
+     * @param index
+     * @param c the buckets' positions in the SA (may be null)
+     * @param e the sorted positions of the strings' terminators (may be null)
+     * @throws IOException 
+     */
+    public GSSA(HuffmanShapedWaveletTree tree, GSSAIndex index, long[] c, long[] e) throws IOException {
+        this(tree, index);
+        
+        if (c != null && c.length == 256) {
+            this.c = c;
+            if (e != null && e.length == c[1]) {
+                this.e = e;
+            }
+        }
+    }
         
     public long getLength() {
         return tree.shape.length;
     }
 
+    /**
+     * Enables the lookup table of k-mers' SA intervals which replaces
+     * the first k steps of the backward search. The table is built lazily.
+     * The length may be reduced to keep the table within 2^20 entries
+     * (16Mb).
+     * The instance is initialized again, so the method must not be called
+     * while the instance is shared between threads (the interval methods
+     * fail until the next {@link #init()}). For the shared instances read 
+     * by the GecozFileReader the length is set by the reader.
+     * 
+     * @param k the length of k-mers (0 disables the table)
+     */
+    public synchronized void setKmerLength(int k) {
+        if (k != kmer_length) {
+            kmer_length = k;
+            kmers = null;
+            initialized = false;
+        }
+    }
+
+    /**
+     * Sets the cache for the search results. 
+     * The results are cached for this instance only, so they are not found
+     * by other instances read for the same block.
+     * 
+     * @param cache the cache to use (null disables caching)
+     */
+    public void setCache(GSSACache cache) {
+        setCache(cache, new Object());
+    }
+
+    /**
+     * Sets the cache for the search results. 
+     * The same cache may be shared by many GSSA instances: the results are 
+     * kept per block key, so the instances read again for the same block 
+     * find the results cached by the previous ones.
+     * It may be replaced while the instance is shared between threads:
+     * every query uses the cache it has found at its start.
+     * 
+     * @param cache the cache to use (null disables caching)
+     * @param block the key of the block (e.g. the file and the block position)
+     *        with proper equals() and hashCode()
+     */
+    public void setCache(GSSACache cache, Object block) {
+        this.block = block;
+        this.cache = cache;
+    }
+
+    /**
+     * Eagerly builds all the structures needed for the queries.
+     * 
+     * @throws IOException 
+     */
+    public void init() throws IOException {
+        index();
+    }
+
+    /**
+     * <p>
+     * Returns the SA interval of the empty string (all the SA rows).
+     * </p>
+     * <p>
+     * The interval methods below are the FM-index primitives for custom 
+     * traversals. They do not allocate and require the GSSA to be 
+     * initialized with {@link #init()}.
+     * </p>
+     * 
+     * @return the SA interval {sp, ep}
+     */
+    public long[] interval() {
+        return new long[] {0, tree.shape.length - 1};
+    }
+
+    /**
+     * Extends the SA interval by one symbol to the left (backward search step).
+     * The strings' terminator can not be used for the extension.
+     * 
+     * @param symbol the symbol to prepend
+     * @param interval the SA interval {sp, ep} to be updated
+     * 
+     * @return false if the extended interval is empty
+     */
+    public boolean backwardStep(int symbol, long[] interval) {
+        checkInitialized();
+        if (symbol == 0) {
+            interval[1] = interval[0] - 1;
+            return false;
+        }
+        return step(symbol, interval);
+    }
+
+    /**
+     * Counts the symbol occurrences before and within the SA interval
+     * in one descent of the wavelet tree.
+     * 
+     * @param symbol the symbol to count
+     * @param interval the SA interval {sp, ep}
+     * @param ranks the array to put the number of symbol occurrences 
+     *        in BWT[0, sp) and BWT[0, ep]
+     */
+    public void occPair(int symbol, long[] interval, long[] ranks) {
+        ranks[0] = interval[0] - 1;
+        ranks[1] = interval[1];
+        tree.occPair(symbol, ranks);
+        ranks[0]++;
+        ranks[1]++;
+    }
+
+    /**
+     * Get the start of the symbol's bucket in the SA, so the backward step
+     * gives the interval {bucket + ranks[0], bucket + ranks[1] - 1}.
+     * 
+     * @param symbol the symbol
+     * 
+     * @return the SA row of the first suffix that starts with the symbol
+     */
+    public long getBucket(int symbol) {
+        checkInitialized();
+        return c[symbol];
+    }
+
+    /**
+     * @return the sorted symbols (except the strings' terminator) the BWT contains
+     */
+    public int[] getAlphabet() {
+        checkInitialized();
+        return alphabet();
+    }
+
+    /**
+     * Locates the SA row in the generalized string 
+     * (all strings concatenated with '\0' terminators).
+     * 
+     * @param row the SA row
+     * 
+     * @return the position of the suffix in the generalized string
+     */
+    public long locateRow(long row) {
+        checkInitialized();
+        return locate(row);
+    }
+
+    /**
+     * Finds the string the position of the generalized string belongs to.
+     * 
+     * @param pos the position in the generalized string
+     * 
+     * @return the index of the string (the position relative to the string
+     *         is pos - getStart(nstr))
+     */
+    public int getString(long pos) {
+        checkInitialized();
+        return string(pos);
+    }
+
+    /**
+     * @param nstr the index of the string
+     * 
+     * @return the position of the nth string start in the generalized string
+     */
+    public long getStart(int nstr) {
+        checkInitialized();
+        return start(nstr);
+    }
+
+    private void checkInitialized() {
+        if (!initialized) {
+            throw new IllegalStateException("GSSA is not initialized");
+        }
+    }
+
     /**
      * Get the length of a string.
      * 
@@ -112,15 +319,14 @@ public class GSSA {
         // skip off characters
         long n = Math.min(sapos, tree.shape.length - 1) - pos;
         while (--n > 0) {
-            long rs = tree.getRS(idx);
-            idx = (int)(c[(int)rs] + (rs >>> 32));            
+            idx = lf(tree.getRS(idx));
         }
 
         final int bpos = buf.position() + (int)(pos - from);
         for (int i = bpos, m = buf.position(); i >= m; i--) {
-            long rs = tree.getRS(idx);
+            final long rs = tree.getRS(idx);
             buf.put(i, (byte)(rs & 0xFF));
-            idx = (int)(c[(int)rs] + (rs >>> 32));            
+            idx = lf(rs);
         }
         buf.position(bpos + 1);
     }
@@ -128,27 +334,103 @@ public class GSSA {
     /**
      * Count the number of the string occurrences in the SSA.
      * 
+     * Occurrences are counted directly from the SA interval, so no location
+     * is performed for the blocks that contain only one string.
+     * For many strings, the occurrences are split by the strings with the 
+     * document array ({@link GSSADocuments}) once locating them would take 
+     * more steps than its building (one LF step per the text symbol). 
+     * The array is built by the first such query and kept for the next ones.
+     * The rare strings are located.
+     * 
      * @param str the string to find
-     * @return the number of string occurrences found
+     * @return the number of string occurrences per every nth string
+     *         or null if no matches found at all
      * 
      * @throws IOException 
      */
     public long[] count(byte[] str) throws IOException {
-        long[][] sa = find(str);
-        
-        if (sa == null || sa.length == 0) {
+        index();
+
+        final GSSACache cache = this.cache;
+        final Object block = this.block;
+        final GSSACache.Entry entry = cache == null ? null : cache.get(block, str);
+        if (entry != null && entry.res != null) {
+            final long[] count = new long[e.length];
+            for (int i = 0; i < count.length; i++) {
+                count[i] = entry.res[i] == null ? 0 : entry.res[i].length;
+            }
+            return count;
+        }
+
+        final long[] interval = entry != null ? entry.interval : interval(str);
+        if (cache != null && entry == null) {
+            cache.put(block, str, interval, null);
+        }
+        if (interval == null) {
             return null;
         }
 
-        long[] count = new long[sa.length];
-        for (int i = 0, n = sa.length; i < n; i++) {
-            count[i] = sa[i] != null && sa[i].length > 0 ? sa[i].length : 0;
+        final long rows = interval[1] - interval[0] + 1;
+        if (e.length == 1) {
+            return new long[] {rows};
+        }
+        
+        // every row is located by 2^sampling_factor / 2 LF steps on average
+        if (documents != null || rows << index.sampling_factor > 2 * tree.shape.length) {
+            return documents().count(interval[0], interval[1]);
+        }
+        
+        // no need to sort positions, just find the string for every hit
+        final long[] count = new long[e.length];
+        for (long i = interval[0], n = interval[1]; i <= n; i++) {
+            count[string(locate(i))]++;
         }
         return count;
     }
 
+    /**
+     * @return the document array built once for all the queries
+     */
+    private GSSADocuments documents() throws IOException {
+        GSSADocuments docs = documents;
+        if (docs == null) {
+            synchronized(this) {
+                docs = documents;
+                if (docs == null) {
+                    documents = docs = new GSSADocuments(this);
+                }
+            }
+        }
+        return docs;
+    }
+    
+    /**
+     * Count the total number of the string occurrences in the SSA.
+     * The count is found in O(|str|) time as no occurrence is located.
+     * 
+     * @param str the string to find
+     * @return the total number of string occurrences in all strings
+     * 
+     * @throws IOException 
+     */
+    public long countAll(byte[] str) throws IOException {
+        index();
+
+        final GSSACache cache = this.cache;
+        final Object block = this.block;
+        final GSSACache.Entry entry = cache == null ? null : cache.get(block, str);
+        final long[] interval = entry != null ? entry.interval : interval(str);
+        if (cache != null && entry == null) {
+            cache.put(block, str, interval, null);
+        }
+        return interval == null ? 0 : interval[1] - interval[0] + 1;
+    }
+
     /**
      * Finds the string in the SSA.
+     * The strings with GSSALocator.THRESHOLD occurrences or more are located
+     * in parallel by the common fork-join pool. The {@link GSSALocator} may
+     * be used to locate them in another pool.
      * 
      * @param str the string to find
      * @return the array[nth][pos] with all occurrences of the string.
@@ -158,16 +440,203 @@ public class GSSA {
      * @throws IOException 
      */
     public long[][] find(byte[] str) throws IOException {
-        long[] sa = search(str);
+        index();
+
+        final GSSACache cache = this.cache;
+        final Object block = this.block;
+        final GSSACache.Entry entry = cache == null ? null : cache.get(block, str);
+        final long[] interval = entry != null ? entry.interval : interval(str);
+        return find(cache, block, str, entry, interval);
+    }
+
+    /**
+     * Locates the string's SA interval unless the positions are cached.
+     * 
+     * @param cache the cache of the search results (may be null)
+     * @param block the key of this block's results in the cache
+     * @param str the string to find
+     * @param entry the cached entry of the string (may be null)
+     * @param interval the SA interval of the string or null if not found
+     * 
+     * @return the array[nth][pos] with all occurrences of the string
+     */
+    private long[][] find(GSSACache cache, Object block, byte[] str, GSSACache.Entry entry, long[] interval) {
+        if (entry != null && (entry.interval == null || entry.res != null)) {
+            return GSSACache.copy(entry.res);
+        }
         
-        if (sa == null || sa.length == 0) {
-            return null;
+        final long[][] res = interval == null ? null : find(interval[0], interval[1]);
+        if (cache == null) {
+            return res;
+        }
+        cache.put(block, str, interval, res);
+        return GSSACache.copy(res);
+    }
+
+    /**
+     * Finds the string and its reverse complement in the SSA.
+     * Both backward searches are done at once: the steps for their common 
+     * suffix are shared (e.g. the whole search for reverse palindromes) and 
+     * every other step of both strings is done by one descent of the wavelet 
+     * tree. The cached results and the k-mers lookup table are used as by
+     * {@link #find(byte[])}.
+     * 
+     * @param str the nucleotide string to find
+     * @return the array[strand][nth][pos] with all occurrences of the string 
+     *         (strand = 0) and its reverse complement (strand = 1).
+     *         The strand results are the same as returned by 
+     *         {@link #find(byte[])}.
+     * 
+     * @throws IOException 
+     */
+    public long[][][] findBothStrands(byte[] str) throws IOException {
+        index();
+
+        final byte[] rc = reverseComplement(str);
+        if (Arrays.equals(str, rc)) {
+            final long[][] res = find(str);
+            return new long[][][] {res, GSSACache.copy(res)};
+        }
+
+        final GSSACache cache = this.cache;
+        final Object block = this.block;
+        final GSSACache.Entry forward = cache == null ? null : cache.get(block, str);
+        final GSSACache.Entry reverse = cache == null ? null : cache.get(block, rc);
+
+        final long[][] intervals = forward == null && reverse == null ? intervals(str, rc) :
+                new long[][] {forward != null ? forward.interval : interval(str),
+                              reverse != null ? reverse.interval : interval(rc)};
+
+        return new long[][][] {find(cache, block, str, forward, intervals[0]),
+                               find(cache, block, rc, reverse, intervals[1])};
+    }
+
+    /**
+     * Performs the backward searches of the string and its reverse complement.
+     * The common suffix is searched once (by the k-mers lookup table when 
+     * it is long enough), otherwise both strings' k-mers are looked up.
+     * The rest of the strings is searched by the paired steps.
+     * 
+     * @param str the string
+     * @param rc the reverse complement of the string
+     * 
+     * @return the SA intervals of the string and its reverse complement 
+     *         (null for the string not found)
+     */
+    private long[][] intervals(byte[] str, byte[] rc) {
+        int len = str.length;
+        int common = 0;
+        while (common < len && str[len - common - 1] == rc[len - common - 1]) {
+            common++;
+        }
+
+        final KmerTable table = kmers;
+        final int k = table == null ? 0 : table.k;
+
+        long[] forward = interval();
+        long[] reverse;
+        if (k > 0 && common < k && len >= k) {
+            // two lookups save more steps than the shared suffix
+            reverse = interval();
+            if (!table.find(str, forward)) {
+                forward = null;
+            }
+            if (!table.find(rc, reverse)) {
+                reverse = null;
+            }
+            len -= k;
+        } else {
+            if (k > 0 && common >= k) {
+                if (!table.find(str, forward)) {
+                    return new long[2][];
+                }
+                len -= k;
+                common -= k;
+            }
+            for (; common > 0; common--) {
+                if (!step(str[--len] & 0xFF, forward)) {
+                    return new long[2][];
+                }
+            }
+            reverse = forward.clone();
+        }
+
+        while (len > 0 && forward != null && reverse != null) {
+            len--;
+            step(str[len] & 0xFF, forward, rc[len] & 0xFF, reverse);
+            if (forward[0] > forward[1]) {
+                forward = null;
+            }
+            if (reverse[0] > reverse[1]) {
+                reverse = null;
+            }
+        }
+        
+        return new long[][] {forward == null ? null : extend(str, len, forward),
+                             reverse == null ? null : extend(rc, len, reverse)};
+    }
+
+    /**
+     * Reverse complements the nucleotide string. 
+     * Symbols other than 'A', 'C', 'G', 'T' are left as is.
+     * 
+     * @param str the string to reverse complement
+     * 
+     * @return the new reverse complemented string
+     */
+    public static byte[] reverseComplement(byte[] str) {
+        final byte[] rc = new byte[str.length];
+        for (int i = 0, n = str.length - 1; i <= n; i++) {
+            rc[n - i] = complement(str[i]);
         }
+        return rc;
+    }
+
+    private static byte complement(byte b) {
+        switch (b) {
+            case 'A' : return 'T';
+            case 'T' : return 'A';
+            case 'C' : return 'G';
+            case 'G' : return 'C';
+            default  : return b;
+        }
+    }
+
+    /**
+     * Locates all the SA interval positions in the SSA.
+     * The intervals of GSSALocator.THRESHOLD rows or more are located by
+     * the GSSALocator in the common fork-join pool.
+     * 
+     * @param sp the start of the SA interval
+     * @param ep the end of the SA interval (inclusive)
+     * 
+     * @return the array[nth][pos] with all located positions
+     */
+    long[][] find(long sp, long ep) {
+        if (ep - sp >= GSSALocator.THRESHOLD) {
+            return find(new GSSALocator(this).locate(sp, ep));
+        }
+
+        final long[] sa = new long[(int)(ep - sp + 1)];
+        for (int i = 0, n = sa.length; i < n; i++) {
+            sa[i] = locate(sp++);
+        }
+        return find(sa);
+    }
+
+    /**
+     * Splits located positions by the strings they belong to.
+     * 
+     * @param sa the located positions in the generalized string
+     * 
+     * @return the array[nth][pos] with positions relative to the nth string
+     */
+    long[][] find(long[] sa) {
 
         // find the correspondence between 'S' position matches and substrings
         // it takes log(n)log(m) where 'n' is a number of matches (sa.length) and
         // 'm' is a number of substrings (e.length)
-        Arrays.sort(sa);
+        Arrays.parallelSort(sa);
         
         long[][] res = new long[e.length][];
         for (int i = 0, idx1 = 0, n = e.length; i < n; i++) {
@@ -184,69 +653,224 @@ public class GSSA {
         return res;
     }
 
-    private long[] search(byte[] str) throws IOException {
-        index();
+    /**
+     * Finds the string the position of the generalized string belongs to.
+     * 
+     * @param pos the position in the generalized string
+     * 
+     * @return the index of the string
+     */
+    int string(long pos) {
+        final int nstr = Arrays.binarySearch(e, pos);
+        return nstr < 0 ? -nstr - 1 : nstr;
+    }
 
-        int ch = (byte)(str[str.length - 1] & 0xFF);
-        long sp = c[ch];
-        long ep = ch < c.length - 1 ? c[ch + 1] - 1 : tree.shape.length - 1;
-        for (int i = str.length - 2; sp <= ep && i >= 0; i--) {
-            ch = (byte)(str[i] & 0xFF);
-            sp = c[ch] + tree.occ(ch, sp - 1) + 1;
-            ep = c[ch] + tree.occ(ch, ep);
+    /**
+     * Fills the array with the index of the string every SA row belongs to.
+     * The whole text is traversed backward by the LF mapping starting from 
+     * the last terminator (row 0), so it takes O(n) steps.
+     * 
+     * @param array the array of the SA length to fill
+     */
+    void strings(PackedArray array) {
+        int nstr = e.length - 1;
+        long idx = 0;
+        for (long pos = tree.shape.length - 1; pos >= 0; pos--) {
+            if (nstr > 0 && pos == e[nstr - 1]) {
+                nstr--;
+            }
+            array.put(idx, nstr);
+            idx = lf(tree.getRS(idx));
         }
+    }
 
-        if (ep < sp) {
-            return new long[0]; // not found
-        }
+    /**
+     * @return the position of the nth string start in the generalized string.
+     */
+    long start(int nstr) {
+        return nstr > 0 ? e[nstr - 1] + 1 : 0;
+    }
+
+    /**
+     * Performs the backward search of the string in the BWT.
+     * 
+     * @param str the string to find
+     * 
+     * @return the SA interval {sp, ep} of the string or null if not found
+     */
+    long[] interval(byte[] str) {
+        final long[] interval = {0, tree.shape.length - 1};
         
-        long[] res = new long[(int)(ep - sp + 1)];
-        for (int i = 0, n = res.length; i < n; i++) {
-            res[i] = locate(sp++);
+        int i = str.length;
+        final KmerTable table = kmers;
+        if (table != null && table.k > 0 && i >= table.k) {
+            if (!table.find(str, interval)) {
+                return null;
+            }
+            i -= table.k;
         }
-        return res;
+
+        return extend(str, i, interval);
     }
 
     /**
-     * Reconstructs SSA index from the BWT.
+     * Continues the backward search of the string's prefix.
      * 
-     * @throws IOException 
+     * @param str the string to find
+     * @param len the length of the prefix left to search
+     * @param interval the SA interval {sp, ep} of the string's suffix
+     * 
+     * @return the SA interval {sp, ep} of the string or null if not found
+     */
+    private long[] extend(byte[] str, int len, long[] interval) {
+        while (--len >= 0) {
+            if (!step(str[len] & 0xFF, interval)) {
+                return null;
+            }
+        }
+        return interval;
+    }
+
+    /**
+     * Extends the SA interval by one symbol to the left (backward search step).
+     * 
+     * @param symbol the symbol to prepend
+     * @param interval the SA interval {sp, ep} to be updated
+     * 
+     * @return false if the extended interval is empty
+     */
+    boolean step(int symbol, long[] interval) {
+        interval[0]--;
+        tree.occPair(symbol, interval);
+        interval[0] += c[symbol] + 1;
+        interval[1] += c[symbol];
+        return interval[0] <= interval[1];
+    }
+
+    /**
+     * Extends two SA intervals by one symbol each in one descent of 
+     * the wavelet tree.
+     * 
+     * @param symbol0 the symbol to prepend to the first interval
+     * @param interval0 the first SA interval {sp, ep} to be updated
+     * @param symbol1 the symbol to prepend to the second interval
+     * @param interval1 the second SA interval {sp, ep} to be updated
      */
-    private void index() throws IOException {
+    void step(int symbol0, long[] interval0, int symbol1, long[] interval1) {
+        interval0[0]--;
+        interval1[0]--;
+        tree.occPairs(symbol0, interval0, symbol1, interval1);
+        interval0[0] += c[symbol0] + 1;
+        interval0[1] += c[symbol0];
+        interval1[0] += c[symbol1] + 1;
+        interval1[1] += c[symbol1];
+    }
+
+    /**
+     * Get the symbols (except the strings' terminator) the BWT contains.
+     * 
+     * @return the sorted array of symbols
+     */
+    int[] alphabet() {
+        int n = 0;
+        final int[] symbols = new int[255];
+        for (int i = 1; i < 256; i++) {
+            if ((i < 255 ? c[i + 1] : tree.shape.length) > c[i]) {
+                symbols[n++] = i;
+            }
+        }
+        return Arrays.copyOf(symbols, n);
+    }
+
+    /**
+     * Calculates the buckets' positions in the SA.
+     */
+    synchronized void buckets() {
         if (c == null) {
             long idx = tree.shape.length;
-            c = new long[256];
+            final long[] buckets = new long[256];
             for (int i = 255; i >= 0; i--) {
                 final long rank = tree.occ(i, tree.shape.length - 1);
                 if (rank >= 0) {
                     idx -= rank + 1;
                 }
-                c[i] = idx;
+                buckets[i] = idx;
             }
+            c = buckets;
         }
-        
-        if (index == null) {
-            index = new GSSAIndex(tree, c, 4);
+    }
+
+    /**
+     * Reconstructs SSA index from the BWT.
+     * 
+     * @throws IOException 
+     */
+    void index() throws IOException {
+        if (initialized) {
+            return;
         }
-        
-        if (e == null) {
-            e = new long[(int)c[1]];
-            for (int i = 0, n = e.length; i < n; i++) {
-                e[i] = locate(i);
+
+        synchronized(this) {
+            if (initialized) {
+                return;
             }
-            Arrays.sort(e);
+
+            buckets();
+
+            if (kmer_length > 0 && kmers == null) {
+                kmers = new KmerTable(this, kmer_length);
+            }
+
+            if (index == null) {
+                index = new GSSAIndex(tree, c, 4);
+            }
+
+            if (z < 0) {
+                z = tree.occ(0, index.find(0));
+            }
+
+            if (e == null) {
+                final long[] ends = new long[(int)c[1]];
+                for (int i = 0, n = ends.length; i < n; i++) {
+                    ends[i] = locate(i);
+                }
+                Arrays.sort(ends);
+                e = ends;
+            }
+
+            initialized = true;
         }
     }
     
-    private long locate(long idx) {
+    long locate(long idx) {
         long len = 0;
         long sa = index.get(idx);
         while(sa < 0) {
             len++;
-            final long rs = tree.getRS(idx);
-            idx = (int)(c[(int)rs] + (rs >>> 32));
+            idx = lf(tree.getRS(idx));
             sa = index.get(idx);
         }
         return sa + len;
     }
+    
+    /**
+     * LF mapping for the row symbol and rank (as returned by getRS()).
+     * 
+     * All strings' terminators are the same '\0' symbol, so the '\0' bucket 
+     * is ordered as the strings that follow them, except the last terminator
+     * which is the smallest suffix. Thus the first string start (suffix 0)
+     * must be mapped to the row 0, and the rows preceding it shifted by one.
+     * 
+     * @param rs the symbol and its rank in the BWT
+     * 
+     * @return the row of the preceding suffix
+     */
+    private long lf(long rs) {
+        final int symbol = (int)(rs & 0xFF);
+        final long rank = rs >>> 8;
+        if (symbol == 0 && rank <= z) {
+            return rank == z ? 0 : rank + 1;
+        }
+        return c[symbol] + rank;
+    }
 }
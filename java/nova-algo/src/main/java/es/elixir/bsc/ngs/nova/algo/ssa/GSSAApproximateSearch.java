@@ -0,0 +1,265 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Approximate search in the Generalized Succinct Suffix Array.
+ * </p>
+ * <p>
+ * The search backtracks over the BWT trying every symbol at every position
+ * of the pattern (going from the end of the pattern as backward search does)
+ * while the number of differences does not exceed the limit.
+ * The branches are pruned by the lower bound of differences in the pattern's
+ * prefix (D-array) calculated with the exact search of the pattern's pieces.
+ * </p>
+ *
+ * @author Dmitry Repchevsky
+ */
+
+public class GSSAApproximateSearch {
+
+    private final GSSA gssa;
+
+    public GSSAApproximateSearch(GSSA gssa) {
+        this.gssa = gssa;
+    }
+
+    /**
+     * Finds all occurrences of the string with up to <b>k</b> mismatches.
+     * 
+     * @param str the string to search
+     * @param k the maximal number of mismatches
+     * 
+     * @return the array[nth][pos] with the start positions of the matches
+     *         or null if no matches found
+     * 
+     * @throws IOException 
+     */
+    public long[][] find(byte[] str, int k) throws IOException {
+        return find(str, k, false);
+    }
+
+    /**
+     * Finds all occurrences of the string with up to <b>k</b> differences.
+     * When the insertions and deletions are allowed, the first and the last
+     * symbols of the string are always aligned to the text (matched or mismatched).
+     * 
+     * @param str the string to search
+     * @param k the maximal number of differences
+     * @param edits whether differences include insertions and deletions
+     *              or only mismatches
+     * 
+     * @return the array[nth][pos] with the start positions of the matches
+     *         or null if no matches found
+     * 
+     * @throws IOException 
+     */
+    public long[][] find(byte[] str, int k, boolean edits) throws IOException {
+        if (k < 0) {
+            throw new IllegalArgumentException("negative number of differences: " + k);
+        }
+
+        gssa.index();
+
+        if (str.length == 0) {
+            return null;
+        }
+
+        final Search search = new Search(str, edits);
+        search.search(str.length - 1, k, 0, gssa.getLength() - 1, 0);
+
+        final long[] sa = search.locate();
+        return sa.length == 0 ? null : gssa.find(sa);
+    }
+
+    private class Search {
+        final byte[] str;
+        final boolean edits;
+
+        final int[] d;
+        final int[] symbols;
+        final List<long[]> intervals;
+        final List<long[]> ranks; // symbols' ranks at the interval bounds for every recursion level
+
+        Search(byte[] str, boolean edits) {
+            this.str = str;
+            this.edits = edits;
+
+            d = bound(str);
+            symbols = gssa.alphabet();
+            intervals = new ArrayList<>();
+            ranks = new ArrayList<>();
+        }
+
+        /**
+         * Recursively searches the pattern's prefix [0..i] in the SA interval.
+         * 
+         * @param i the last position of the pattern's prefix to search
+         * @param z the number of differences allowed
+         * @param sp the start of the SA interval
+         * @param ep the end of the SA interval
+         * @param level the recursion level
+         */
+        void search(int i, int z, long sp, long ep, int level) {
+            if (i < 0) {
+                intervals.add(new long[] {sp, ep});
+                return;
+            }
+            if (z < d[i]) {
+                return;
+            }
+
+            if (z == 0) {
+                // no branching, only the exact backward step
+                final long[] interval = {sp, ep};
+                if (str[i] != 0 && gssa.step(str[i] & 0xFF, interval)) {
+                    search(i - 1, 0, interval[0], interval[1], level + 1);
+                }
+                return;
+            }
+
+            // the first and the last symbols of the pattern are always aligned,
+            // so the indels at the ends do not produce the shifted matches.
+            final boolean indels = edits && z > 0 && i < str.length - 1;
+            if (indels && i > 0) {
+                // the pattern symbol is skipped (insertion into the pattern)
+                search(i - 1, z - 1, sp, ep, level + 1);
+            }
+
+            // ranks of all the symbols are found in one traversal of the tree
+            while (ranks.size() <= level * 2) {
+                ranks.add(new long[256]);
+                ranks.add(new long[256]);
+            }
+            final long[] lo = ranks.get(level * 2);
+            final long[] hi = ranks.get(level * 2 + 1);
+            gssa.tree.occAll(sp - 1, lo);
+            gssa.tree.occAll(ep, hi);
+
+            for (int symbol : symbols) {
+                final long nsp = gssa.c[symbol] + lo[symbol] + 1;
+                final long nep = gssa.c[symbol] + hi[symbol];
+                if (nsp > nep) {
+                    continue;
+                }
+                if (indels) {
+                    // the text symbol is skipped (deletion from the pattern)
+                    search(i, z - 1, nsp, nep, level + 1);
+                }
+                if (symbol == (str[i] & 0xFF)) {
+                    search(i - 1, z, nsp, nep, level + 1);
+                } else {
+                    search(i - 1, z - 1, nsp, nep, level + 1);
+                }
+            }
+        }
+
+        /**
+         * Locates all the rows of the found (possibly overlapping) SA intervals.
+         * 
+         * @return the positions of the matches in the generalized string
+         */
+        long[] locate() {
+            intervals.sort((i1, i2) -> Long.compare(i1[0], i2[0]));
+
+            long size = 0;
+            long last = -1;
+            for (long[] interval : intervals) {
+                final long sp = Math.max(interval[0], last + 1);
+                if (sp <= interval[1]) {
+                    size += interval[1] - sp + 1;
+                    last = interval[1];
+                }
+            }
+
+            final long[] sa = new long[(int)size];
+            int n = 0;
+            last = -1;
+            for (long[] interval : intervals) {
+                for (long row = Math.max(interval[0], last + 1); row <= interval[1]; row++) {
+                    sa[n++] = gssa.locate(row);
+                }
+                last = Math.max(last, interval[1]);
+            }
+            return sa;
+        }
+    }
+
+    /**
+     * Calculates the lower bound of differences for every prefix of the string.
+     * The string is greedily split into the longest pieces that occur in the text.
+     * Every piece followed by the symbol it can not be extended with must contain 
+     * at least one difference.
+     * 
+     * @param str the string to search
+     * 
+     * @return the array where d[i] is the minimal number of differences in str[0..i]
+     */
+    private int[] bound(byte[] str) {
+        final int[] d = new int[str.length];
+
+        int z = 0;
+        for (int start = 0; start < str.length;) {
+            // the longest str[start..end] that occurs in the text
+            int end = start - 1;
+            int hi = str.length - 1;
+            while (end < hi) {
+                final int mid = (end + hi + 1) >>> 1;
+                if (occurs(str, start, mid)) {
+                    end = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            Arrays.fill(d, start, end + 1, z);
+            if (++end < str.length) {
+                d[end] = ++z;
+            }
+            start = end + 1;
+        }
+        return d;
+    }
+
+    /**
+     * @return whether the str[from..to] occurs in the text.
+     */
+    private boolean occurs(byte[] str, int from, int to) {
+        final long[] interval = {0, gssa.getLength() - 1};
+        for (int i = to; i >= from; i--) {
+            if (str[i] == 0 || !gssa.step(str[i] & 0xFF, interval)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
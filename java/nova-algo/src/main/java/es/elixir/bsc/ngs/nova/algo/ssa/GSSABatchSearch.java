@@ -0,0 +1,210 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Searches many patterns in the Generalized Succinct Suffix Array at once.
+ * </p>
+ * <p>
+ * Patterns are sorted by their reversed form, so the patterns that share
+ * the same suffix go one after another as in a reversed trie. The backward
+ * search then restarts not from the full SA interval, but from the interval
+ * of the suffix shared with the previous pattern.
+ * The sorted patterns are split into groups which are searched in parallel.
+ * </p>
+ *
+ * @author Dmitry Repchevsky
+ */
+
+public class GSSABatchSearch {
+
+    /**
+     * The number of patterns searched as one task.
+     */
+    public final static int GROUP_SIZE = 1024;
+
+    private final GSSA gssa;
+
+    public GSSABatchSearch(GSSA gssa) {
+        this.gssa = gssa;
+    }
+
+    /**
+     * Searches all the patterns in the calling thread.
+     *
+     * @param patterns the patterns to search
+     * @param listener the listener to receive the search results
+     *
+     * @throws IOException
+     */
+    public void find(List<byte[]> patterns, Listener listener) throws IOException {
+        gssa.index();
+
+        final Integer[] order = sort(patterns);
+        search(patterns, order, 0, order.length, listener);
+    }
+
+    /**
+     * Searches all the patterns using provided executor.
+     * The results are passed to the listener as soon as they are found,
+     * so the listener must be thread safe.
+     *
+     * @param patterns the patterns to search
+     * @param executor the executor to run the search tasks
+     * @param listener the listener to receive the search results
+     *
+     * @throws IOException
+     */
+    public void find(List<byte[]> patterns, ExecutorService executor, Listener listener) throws IOException {
+        gssa.index();
+
+        final Integer[] order = sort(patterns);
+
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0, n = order.length; i < n; i += GROUP_SIZE) {
+            final int from = i;
+            final int to = Math.min(i + GROUP_SIZE, n);
+            futures.add(executor.submit((Callable<Void>) () -> {
+                search(patterns, order, from, to, listener);
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex.getMessage());
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Searches the group of sorted patterns reusing the SA intervals of the
+     * common suffixes.
+     *
+     * @param patterns the patterns to search
+     * @param order the patterns' indexes in reversed lexicographical order
+     * @param from the first pattern (in order) to search
+     * @param to the last pattern (in order) to search (exclusive)
+     * @param listener the listener to receive the search results
+     */
+    private void search(List<byte[]> patterns, Integer[] order, int from, int to, Listener listener) {
+
+        // SA intervals for every suffix length of the last searched pattern
+        final List<long[]> intervals = new ArrayList<>();
+        intervals.add(new long[] {0, gssa.getLength() - 1});
+
+        byte[] prev = null;
+        int depth = 0; // the number of valid intervals (minus the empty suffix)
+        for (int i = from; i < to; i++) {
+            final byte[] pattern = patterns.get(order[i]);
+
+            int d = prev == null ? 0 : Math.min(depth, common(prev, pattern));
+            long[] interval = intervals.get(d);
+            while (d < pattern.length && interval[0] <= interval[1]) {
+                if (++d == intervals.size()) {
+                    intervals.add(new long[2]);
+                }
+                final long[] next = intervals.get(d);
+                next[0] = interval[0];
+                next[1] = interval[1];
+                gssa.step(pattern[pattern.length - d] & 0xFF, next);
+                interval = next;
+            }
+            depth = d;
+            prev = pattern;
+
+            if (pattern.length > 0 && d == pattern.length && interval[0] <= interval[1]) {
+                listener.found(order[i], gssa.find(interval[0], interval[1]));
+            } else {
+                listener.found(order[i], null);
+            }
+        }
+    }
+
+    /**
+     * Sorts patterns in reversed lexicographical order.
+     *
+     * @param patterns the patterns to sort
+     *
+     * @return patterns' indexes in reversed lexicographical order
+     */
+    private static Integer[] sort(List<byte[]> patterns) {
+        final Integer[] order = new Integer[patterns.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (i1, i2) -> {
+            final byte[] p1 = patterns.get(i1);
+            final byte[] p2 = patterns.get(i2);
+            final int n = common(p1, p2);
+            if (n < p1.length && n < p2.length) {
+                return (p1[p1.length - n - 1] & 0xFF) - (p2[p2.length - n - 1] & 0xFF);
+            }
+            return p1.length - p2.length;
+        });
+
+        return order;
+    }
+
+    /**
+     * @return the length of the common suffix of two patterns.
+     */
+    private static int common(byte[] p1, byte[] p2) {
+        int n = 0;
+        for (int i = p1.length - 1, j = p2.length - 1; i >= 0 && j >= 0 && p1[i] == p2[j]; i--, j--) {
+            n++;
+        }
+        return n;
+    }
+
+    public static interface Listener {
+
+        /**
+         * Receives the search results for the pattern.
+         *
+         * @param idx the index of the pattern in the searched patterns list
+         * @param res the array[nth][pos] with all occurrences of the pattern
+         *            or null if no matches found
+         */
+        void found(int idx, long[][] res);
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The cache of the search results bounded by the memory they occupy.
+ * </p>
+ * <p>
+ * The cache keeps SA intervals and located positions of the searched 
+ * patterns per block, so the same cache may be shared by all the blocks 
+ * of the index. The block is identified by the key given to the GSSA 
+ * (see {@link GSSA#setCache(GSSACache, Object)}), so the results are found 
+ * again by the instances read later for the same block, and the cache 
+ * keeps no references to the GSSA instances. Least recently used patterns 
+ * are evicted when the 
+ * estimated size of the cached results exceeds the limit, so the patterns 
+ * with many occurrences are evicted first when not queried again.
+ * Patterns not found are cached as well.
+ * </p>
+ * <p>
+ * The cache is thread safe. Cached positions are copied to the callers.
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class GSSACache {
+    
+    /**
+     * The estimated memory used by a cache entry without the results.
+     */
+    private final static int ENTRY_SIZE = 96;
+    
+    private final long max_size;
+    private long size;
+    
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    private final LinkedHashMap<Key, Entry> map;
+    
+    /**
+     * Creates the cache.
+     * 
+     * @param max_size the maximal size (in bytes) of the cached results
+     */
+    public GSSACache(long max_size) {
+        this.max_size = max_size;
+        map = new LinkedHashMap<>(256, 0.75f, true);
+    }
+    
+    /**
+     * @return the maximal size (in bytes) of the cached results
+     */
+    public long getMaxSize() {
+        return max_size;
+    }
+
+    /**
+     * @return the estimated size (in bytes) of the cached results
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+    
+    /**
+     * @return the number of cached patterns
+     */
+    public synchronized int getCount() {
+        return map.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Removes all the cached results. The statistics are not reset.
+     */
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * Gets the cached search result.
+     * 
+     * @param block the key of the searched block
+     * @param str the searched pattern
+     * 
+     * @return the cached entry or null if the pattern was not searched
+     */
+    synchronized Entry get(Object block, byte[] str) {
+        final Entry entry = map.get(new Key(block, str));
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Puts the search result into the cache.
+     * The entry with located positions is never replaced by the entry 
+     * with the SA interval only.
+     * 
+     * @param block the key of the searched block
+     * @param str the searched pattern
+     * @param interval the SA interval of the pattern or null if not found
+     * @param res the located positions or null if not located
+     */
+    synchronized void put(Object block, byte[] str, long[] interval, long[][] res) {
+        final Key key = new Key(block, str.clone());
+        final Entry entry = new Entry(interval, res, ENTRY_SIZE + str.length + size(res));
+        if (entry.size > max_size) {
+            return;
+        }
+
+        final Entry old = map.get(key);
+        if (old != null) {
+            if (res == null) {
+                return;
+            }
+            size -= old.size;
+        }
+        map.put(key, entry);
+        size += entry.size;
+
+        final Iterator<Map.Entry<Key, Entry>> iter = map.entrySet().iterator();
+        while (size > max_size && iter.hasNext()) {
+            size -= iter.next().getValue().size;
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return the estimated memory size of located positions
+     */
+    private static long size(long[][] res) {
+        if (res == null) {
+            return 0;
+        }
+        long sz = 16 + res.length * 8L;
+        for (long[] pos : res) {
+            if (pos != null) {
+                sz += 16 + pos.length * 8L;
+            }
+        }
+        return sz;
+    }
+
+    /**
+     * @return the deep copy of located positions
+     */
+    static long[][] copy(long[][] res) {
+        if (res == null) {
+            return null;
+        }
+        final long[][] copy = new long[res.length][];
+        for (int i = 0; i < res.length; i++) {
+            if (res[i] != null) {
+                copy[i] = res[i].clone();
+            }
+        }
+        return copy;
+    }
+
+    static class Entry {
+        final long[] interval;
+        final long[][] res;
+        final long size;
+
+        private Entry(long[] interval, long[][] res, long size) {
+            this.interval = interval;
+            this.res = res;
+            this.size = size;
+        }
+    }
+
+    private static class Key {
+        private final Object block;
+        private final byte[] str;
+        private final int hash;
+
+        private Key(Object block, byte[] str) {
+            this.block = block;
+            this.str = str;
+            this.hash = 31 * block.hashCode() + Arrays.hashCode(str);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)obj;
+            return block.equals(key.block) && Arrays.equals(str, key.str);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Searches the patterns with IUPAC degenerate nucleotide codes.
+ * </p>
+ * <p>
+ * The backward search branches over all the nucleotides the degenerate code
+ * stands for (e.g. 'R' = 'A' or 'G', 'N' = any of 'ACGT'), so the pattern is
+ * searched in one traversal instead of searching all its concrete variants.
+ * The SA intervals found on every step are kept sorted and adjacent ones are
+ * merged, as the backward step of the adjacent intervals gives the adjacent 
+ * intervals again. So the trailing 'N's do not multiply the intervals at all.
+ * </p>
+ * <p>
+ * Degenerate codes match only the nucleotides ('N' never matches 'N' in the 
+ * text), all other symbols are matched literally. The codes are case insensitive,
+ * 'U' matches 'T'.
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class GSSADegenerateSearch {
+    
+    /**
+     * The default maximal number of SA intervals kept on a search step.
+     */
+    public final static int MAX_INTERVALS = 1 << 16;
+
+    private final static int[][] CODES = new int[256][];
+    static {
+        code("A", 'A');
+        code("C", 'C');
+        code("G", 'G');
+        code("T", 'T', 'U');
+        code("AG", 'R');
+        code("CT", 'Y');
+        code("CG", 'S');
+        code("AT", 'W');
+        code("GT", 'K');
+        code("AC", 'M');
+        code("CGT", 'B');
+        code("AGT", 'D');
+        code("ACT", 'H');
+        code("ACG", 'V');
+        code("ACGT", 'N');
+    }
+
+    private final GSSA gssa;
+    private final int max_intervals;
+    
+    public GSSADegenerateSearch(GSSA gssa) {
+        this(gssa, MAX_INTERVALS);
+    }
+
+    /**
+     * @param gssa the generalized succinct suffix array to search
+     * @param max_intervals the maximal number of SA intervals kept on a search step
+     */
+    public GSSADegenerateSearch(GSSA gssa, int max_intervals) {
+        this.gssa = gssa;
+        this.max_intervals = max_intervals;
+    }
+
+    /**
+     * Counts the total number of the pattern occurrences in all strings.
+     * 
+     * @param pattern the pattern with IUPAC codes
+     * 
+     * @return the total number of occurrences
+     * 
+     * @throws IOException 
+     * @throws IllegalArgumentException if the pattern produces too many intervals
+     */
+    public long countAll(byte[] pattern) throws IOException {
+        long count = 0;
+        for (long[] interval : intervals(pattern)) {
+            count += interval[1] - interval[0] + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Finds all occurrences of the pattern.
+     * 
+     * @param pattern the pattern with IUPAC codes
+     * 
+     * @return the array[nth][pos] with all occurrences of the pattern
+     *         or null if no matches found
+     * 
+     * @throws IOException 
+     * @throws IllegalArgumentException if the pattern produces too many intervals
+     */
+    public long[][] find(byte[] pattern) throws IOException {
+        final List<long[]> intervals = intervals(pattern);
+        
+        long size = 0;
+        for (long[] interval : intervals) {
+            size += interval[1] - interval[0] + 1;
+        }
+        if (size == 0) {
+            return null;
+        }
+
+        final long[] sa = new long[(int)size];
+        int n = 0;
+        for (long[] interval : intervals) {
+            for (long row = interval[0]; row <= interval[1]; row++) {
+                sa[n++] = gssa.locate(row);
+            }
+        }
+        return gssa.find(sa);
+    }
+
+    /**
+     * Finds the sorted disjoint SA intervals of all the pattern variants.
+     * 
+     * @param pattern the pattern with IUPAC codes
+     * 
+     * @return the list of SA intervals {sp, ep} (empty if not found)
+     * 
+     * @throws IOException 
+     */
+    public List<long[]> intervals(byte[] pattern) throws IOException {
+        gssa.index();
+
+        List<long[]> intervals = new ArrayList<>();
+        if (pattern.length == 0) {
+            return intervals;
+        }
+        intervals.add(new long[] {0, gssa.getLength() - 1});
+
+        final int[] literal = new int[1];
+        for (int i = pattern.length - 1; i >= 0 && !intervals.isEmpty(); i--) {
+            final int b = pattern[i] & 0xFF;
+            if (b == 0) {
+                return new ArrayList<>();
+            }
+            int[] symbols = CODES[b];
+            if (symbols == null) {
+                literal[0] = b;
+                symbols = literal;
+            }
+
+            // the steps with every symbol keep intervals sorted
+            final List<long[]> next = new ArrayList<>();
+            for (int symbol : symbols) {
+                for (long[] interval : intervals) {
+                    final long[] step = {interval[0], interval[1]};
+                    if (!gssa.step(symbol, step)) {
+                        continue;
+                    }
+                    final long[] last = next.isEmpty() ? null : next.get(next.size() - 1);
+                    if (last != null && last[1] + 1 == step[0]) {
+                        last[1] = step[1];
+                    } else if (next.size() < max_intervals) {
+                        next.add(step);
+                    } else {
+                        throw new IllegalArgumentException("too degenerate pattern: more than " + max_intervals + " intervals");
+                    }
+                }
+            }
+            intervals = next;
+        }
+        return intervals;
+    }
+
+    private static void code(String symbols, char... codes) {
+        final int[] arr = new int[symbols.length()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = symbols.charAt(i);
+        }
+        for (char ch : codes) {
+            CODES[ch] = arr;
+            CODES[Character.toLowerCase(ch)] = arr;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import es.elixir.bsc.ngs.nova.algo.tree.RankedWTNode;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Document listing over the Generalized Succinct Suffix Array.
+ * </p>
+ * <p>
+ * Keeps the document array (the index of the string every SA row belongs to)
+ * as a wavelet matrix, so the distinct strings that contain the pattern and 
+ * the number of occurrences in every string are found without locating the 
+ * occurrences. The SA interval is split by the bits of the strings' indexes
+ * and only non-empty parts are followed, so the listing takes O(d log(m))
+ * rank operations, where 'd' is the number of the strings found and 'm' is 
+ * the number of strings in the GSSA.
+ * </p>
+ * <p>
+ * The document array is built in memory by one backward traversal of the 
+ * whole text and takes n*log(m) bits (plus rank directories).
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class GSSADocuments {
+    
+    private final GSSA gssa;
+    private final int nstrings;
+
+    private final RankedWTNode[] levels; // bit vectors from the highest bit
+    private final long[] zeros; // the number of zeros in every level
+
+    /**
+     * Builds the document array for the GSSA.
+     * 
+     * @param gssa the generalized succinct suffix array
+     * 
+     * @throws IOException 
+     */
+    public GSSADocuments(GSSA gssa) throws IOException {
+        this.gssa = gssa;
+        
+        gssa.index();
+
+        final long n = gssa.getLength();
+        nstrings = (int)gssa.c[1];
+        
+        final int bits = nstrings > 1 ? PackedArray.bits(nstrings - 1) : 0;
+        levels = new RankedWTNode[bits];
+        zeros = new long[bits];
+        if (bits == 0) {
+            return;
+        }
+
+        PackedArray array = new PackedArray(n, bits);
+        gssa.strings(array);
+
+        PackedArray next = new PackedArray(n, bits);
+        for (int l = 0; l < bits; l++) {
+            final int shift = bits - l - 1;
+            final RankedWTNode node = new RankedWTNode(n);
+            for (long i = 0; i < n; i++) {
+                final int bit = (int)(array.get(i) >>> shift) & 1;
+                node.put(bit);
+                if (bit == 0) {
+                    zeros[l]++;
+                }
+            }
+            node.flush();
+            levels[l] = node;
+
+            // stable partition of the values by the bit (zeros go first)
+            long lo = 0;
+            long hi = zeros[l];
+            for (long i = 0; i < n; i++) {
+                final long value = array.get(i);
+                next.put(((value >>> shift) & 1) == 0 ? lo++ : hi++, value);
+            }
+            final PackedArray tmp = array;
+            array = next;
+            next = tmp;
+        }
+    }
+
+    /**
+     * Lists the strings that contain the pattern.
+     * 
+     * @param str the pattern to find
+     * 
+     * @return the sorted indexes of the strings that contain the pattern
+     *         or null if no matches found
+     * 
+     * @throws IOException 
+     */
+    public int[] list(byte[] str) throws IOException {
+        final long[] interval = interval(str);
+        if (interval == null) {
+            return null;
+        }
+        
+        final int[] strings = new int[nstrings];
+        final int n = list(0, interval[0], interval[1] + 1, 0, strings, null, 0);
+        return Arrays.copyOf(strings, n);
+    }
+
+    /**
+     * Counts the pattern occurrences in every string.
+     * 
+     * @param str the pattern to find
+     * 
+     * @return the number of the pattern occurrences per every nth string
+     *         or null if no matches found at all
+     * 
+     * @throws IOException 
+     */
+    public long[] count(byte[] str) throws IOException {
+        final long[] interval = interval(str);
+        if (interval == null) {
+            return null;
+        }
+
+        return count(interval[0], interval[1]);
+    }
+
+    /**
+     * Counts the SA interval rows in every string.
+     * 
+     * @param sp the start of the SA interval
+     * @param ep the end of the SA interval (inclusive)
+     * 
+     * @return the number of the rows per every nth string
+     */
+    long[] count(long sp, long ep) {
+        final long[] count = new long[nstrings];
+        list(0, sp, ep + 1, 0, null, count, 0);
+        return count;
+    }
+
+    private long[] interval(byte[] str) throws IOException {
+        gssa.index();
+        return str.length == 0 ? null : gssa.interval(str);
+    }
+
+    /**
+     * Recursively splits the rows [sp, ep) of the level by the bit value.
+     * 
+     * @param l the level
+     * @param sp the first row in the level
+     * @param ep the last row in the level (exclusive)
+     * @param value the high bits of the strings' indexes in the rows
+     * @param strings the array to put the found strings (may be null)
+     * @param count the array to put the number of occurrences (may be null)
+     * @param n the number of strings found so far
+     * 
+     * @return the number of strings found
+     */
+    private int list(int l, long sp, long ep, int value, int[] strings, long[] count, int n) {
+        if (l == levels.length) {
+            if (strings != null) {
+                strings[n] = value;
+            }
+            if (count != null) {
+                count[value] = ep - sp;
+            }
+            return n + 1;
+        }
+
+        final RankedWTNode node = levels[l];
+        final long osp = sp == 0 ? 0 : node.count(sp - 1);
+        final long oep = node.count(ep - 1);
+        
+        if (sp - osp < ep - oep) {
+            n = list(l + 1, sp - osp, ep - oep, value << 1, strings, count, n);
+        }
+        if (osp < oep) {
+            n = list(l + 1, zeros[l] + osp, zeros[l] + oep, value << 1 | 1, strings, count, n);
+        }
+        return n;
+    }
+}
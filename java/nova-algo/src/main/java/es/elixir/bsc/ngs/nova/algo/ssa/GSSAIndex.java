@@ -26,22 +26,61 @@
 package es.elixir.bsc.ngs.nova.algo.ssa;
 
 import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree;
+import es.elixir.bsc.ngs.nova.algo.tree.IndexArray;
+import es.elixir.bsc.ngs.nova.algo.tree.IndexWaveletMatrix;
 import es.elixir.bsc.ngs.nova.algo.tree.IndexWaveletTree;
 import es.elixir.bsc.ngs.nova.algo.tree.RankedWTNode;
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
 
 /**
  * Sparse Suffix Array Index structure. The index consists in 
  * permuted sparse suffix array stored as Wavelet Tree and a
  * ranked bit vector that marks those BWT symbols for that SA is kept.
  * The marker´s rank (bit '1') corresponds to the position of the sparse index.
+ * Optionally, the index keeps sampled inverse suffix array (the BWT positions
+ * of every sampled text position) as a packed array after the Wavelet Tree,
+ * so the sampled positions are found with one array read.
+ * Another option is the sampled select structure after every bit vector,
+ * so the inverse lookup takes a sample read and a short scan per vector.
+ * The sparse suffix array may also be kept in a Wavelet Matrix or in packed
+ * arrays of the values and their positions (faster, but twice bigger).
  * 
  * @author Dmitry Repchevsky
  */
 public class GSSAIndex implements SAIndex {
+    
+    /**
+     * The index keeps the sampled inverse suffix array.
+     */
+    public final static int INVERSE_INDEX = 0x01;
+    
+    /**
+     * The bit vectors of the index keep the sampled select structures.
+     */
+    public final static int SELECT_INDEX = 0x02;
+    
+    /**
+     * The sparse suffix array is kept in the IndexWaveletTree (the default).
+     */
+    public final static int WAVELET_TREE = 0x00;
+    
+    /**
+     * The sparse suffix array is kept in the IndexWaveletMatrix.
+     */
+    public final static int WAVELET_MATRIX = 0x04;
+    
+    /**
+     * The sparse suffix array is kept in the PackedIndexArray.
+     */
+    public final static int PACKED_ARRAY = 0x08;
+    
     private final RankedWTNode rank; // bit vector that keeps marked characters (those for which SA is kept)
-    private final IndexWaveletTree wsa; // partial suffix array
+    private final IndexArray wsa; // partial suffix array
+    private final PackedArray isa; // sampled inverse suffix array (may be null)
 
     public final int sampling_factor; // Sampling Factor 3 =  
     
@@ -68,6 +107,53 @@ public class GSSAIndex implements SAIndex {
         
         rank = new RankedWTNode(in, len);
         wsa = new IndexWaveletTree(in, (len + (1 << sampling_factor) - 1) >> sampling_factor);
+        isa = null;
+    }
+    
+    /**
+     * Create the Sparse Suffix Array Index from its serialized form
+     * with the known sampling factor.
+     * 
+     * @param in the buffer with the serialized index
+     * @param len the length of the Suffix Array
+     * @param sampling_factor the sampling factor of the index
+     * @param options the index structures (e.g. INVERSE_INDEX | WAVELET_MATRIX)
+     * 
+     * @throws IOException 
+     */
+    public GSSAIndex(ByteBuffer in, long len, int sampling_factor, int options) throws IOException {
+        this(LargeByteBuffer.wrap(in), len, sampling_factor, options);
+    }
+
+    /**
+     * Create the Sparse Suffix Array Index from its serialized form kept
+     * in the buffer which may be bigger than 2Gb.
+     * 
+     * @param in the buffer with the serialized index
+     * @param len the length of the Suffix Array
+     * @param sampling_factor the sampling factor of the index
+     * @param options the index structures (e.g. INVERSE_INDEX | WAVELET_MATRIX)
+     * 
+     * @throws IOException 
+     */
+    public GSSAIndex(LargeByteBuffer in, long len, int sampling_factor, int options) throws IOException {
+        this.sampling_factor = sampling_factor;
+
+        final boolean select = (options & SELECT_INDEX) != 0;
+        
+        final long ssa_len = (len + (1 << sampling_factor) - 1) >> sampling_factor;
+
+        rank = new RankedWTNode(in, len);
+        if (select) {
+            rank.readSelect(in);
+        }
+        switch (options & (WAVELET_MATRIX | PACKED_ARRAY)) {
+            case WAVELET_TREE: wsa = new IndexWaveletTree(in, ssa_len, select); break;
+            case WAVELET_MATRIX: wsa = new IndexWaveletMatrix(in, ssa_len, select); break;
+            case PACKED_ARRAY: wsa = new PackedIndexArray(in, ssa_len); break;
+            default: throw new IOException("unknown sparse suffix array container: " + options);
+        }
+        isa = (options & INVERSE_INDEX) != 0 ? new PackedArray(in, ssa_len, PackedArray.bits(len - 1)) : null;
     }
     
     public GSSAIndex(HuffmanShapedWaveletTree tree, int sampling_factor) throws IOException {
@@ -124,29 +210,63 @@ public class GSSAIndex implements SAIndex {
         rank.flush();
         
         wsa = new IndexWaveletTree(ssa);
+        isa = null;
     }
     
-    private GSSAIndex(int[] sa, int sampling_rate, ByteBuffer out) throws IOException {
+    /**
+     * Writes the index reading the suffix array only once and sequentially,
+     * so it may be streamed from the external memory.
+     * 
+     * @param sa the iterator over the suffix array values
+     * @param len the length of the suffix array
+     */
+    private GSSAIndex(PrimitiveIterator.OfInt sa, int len, int sampling_rate, ByteBuffer out, int options) throws IOException {
     
         sampling_factor = 31 - Integer.numberOfLeadingZeros(sampling_rate);
         
-        int[] ssa = new int[(sa.length + (1 << sampling_factor) - 1) >> sampling_factor];
+        final boolean inverse = (options & INVERSE_INDEX) != 0;
+        final boolean select = (options & SELECT_INDEX) != 0;
+        
+        int[] ssa = new int[(len + (1 << sampling_factor) - 1) >> sampling_factor];
+        
+        // the sampled inverse suffix array is collected in the same pass
+        final int[] positions = inverse ? new int[ssa.length] : null;
         
         final int mask = 0xFFFFFFFF >>> (32 - sampling_factor);
 
-        rank = new RankedWTNode(out, sa.length);
-        for (int i = 0, j = 0, n = sa.length; i < n; i++) {
-            final int pos = sa[i];
+        rank = new RankedWTNode(out, len);
+        for (int i = 0, j = 0; i < len; i++) {
+            final int pos = sa.nextInt();
             if ((pos & mask) == 0) {
                 ssa[j++] = pos >> sampling_factor;
+                if (positions != null) {
+                    positions[pos >> sampling_factor] = i;
+                }
                 rank.put(1);
             } else {
                 rank.put(0);
             }
         }
         rank.flush();
+        if (select) {
+            rank.writeSelect(out);
+        }
 
-        wsa = new IndexWaveletTree(ssa, out);
+        switch (options & (WAVELET_MATRIX | PACKED_ARRAY)) {
+            case WAVELET_TREE: wsa = new IndexWaveletTree(ssa, out, select); break;
+            case WAVELET_MATRIX: wsa = new IndexWaveletMatrix(ssa, out, select); break;
+            case PACKED_ARRAY: wsa = new PackedIndexArray(ssa, out); break;
+            default: throw new IOException("unknown sparse suffix array container: " + options);
+        }
+        
+        if (inverse) {
+            isa = new PackedArray(out, positions.length, PackedArray.bits(len - 1));
+            for (int i = 0; i < positions.length; i++) {
+                isa.put(i, positions[i]);
+            }
+        } else {
+            isa = null;
+        }
     }
 
     @Override
@@ -183,12 +303,65 @@ public class GSSAIndex implements SAIndex {
     @Override
     public long find(long idx) {
         final long sidx = idx >> sampling_factor;
-        return idx == sidx << sampling_factor ? rank.findOne(wsa.find(sidx) + 1) : Integer.MIN_VALUE;
+        if (idx != sidx << sampling_factor) {
+            return Integer.MIN_VALUE;
+        }
+        return isa != null ? isa.get(sidx) : rank.findOne(wsa.find(sidx) + 1);
+    }
+    
+    /**
+     * @return whether the index keeps the sampled inverse suffix array.
+     */
+    public boolean hasInverse() {
+        return isa != null;
+    }
+
+    /**
+     * @return whether the index keeps the sampled select structures.
+     */
+    public boolean hasSelect() {
+        return rank.hasSelect();
     }
     
     public static GSSAIndex write(int[] sa, int sampling_rate, ByteBuffer out) throws IOException {
-        return new GSSAIndex(sa, sampling_rate, out);
+        return write(sa, sampling_rate, out, WAVELET_TREE);
+    }
+
+    /**
+     * Writes the Sparse Suffix Array Index.
+     * 
+     * @param sa the suffix array
+     * @param sampling_rate the sampling rate (8,16,32...)
+     * @param out the buffer to write the index into
+     * @param options the index structures (e.g. INVERSE_INDEX | WAVELET_MATRIX)
+     * 
+     * @return the index written into the buffer
+     * 
+     * @throws IOException 
+     */
+    public static GSSAIndex write(int[] sa, int sampling_rate, ByteBuffer out, int options) throws IOException {
+        return new GSSAIndex(Arrays.stream(sa).iterator(), sa.length, sampling_rate, out, options);
+    }
+
+    /**
+     * Writes the Sparse Suffix Array Index from the suffix array which is
+     * read sequentially (e.g. from the external memory).
+     * Only the sampled values are used, so all others may be replaced by -1.
+     * 
+     * @param sa the iterator over the suffix array values
+     * @param len the length of the suffix array
+     * @param sampling_rate the sampling rate (8,16,32...)
+     * @param out the buffer to write the index into
+     * @param options the index structures (e.g. INVERSE_INDEX | WAVELET_MATRIX)
+     * 
+     * @return the index written into the buffer
+     * 
+     * @throws IOException 
+     */
+    public static GSSAIndex write(PrimitiveIterator.OfInt sa, int len, int sampling_rate, ByteBuffer out, int options) throws IOException {
+        return new GSSAIndex(sa, len, sampling_rate, out, options);
     }
+
     /**
      * Calculates the index size for a Suffix Array.
      * 
@@ -203,4 +376,32 @@ public class GSSAIndex implements SAIndex {
         final long rnk_size = RankedWTNode.bytes(size);
         return ssa_size + rnk_size;
     }
+
+    /**
+     * Calculates the index size for a Suffix Array.
+     * 
+     * @param size the size of the indexed Suffix Array
+     * @param sampling_factor the sampling factor which is a power of 2 (1,2,3,4 ...)
+     * @param options the index structures (e.g. INVERSE_INDEX | WAVELET_MATRIX)
+     * 
+     * @return the size of the index
+     */
+    public static long getIndexSize(long size, int sampling_factor, int options) {
+        final long ssa_len = (size + (1 << sampling_factor) - 1) >> sampling_factor;
+        final boolean select = (options & SELECT_INDEX) != 0;
+
+        long len = RankedWTNode.bytes(size);
+        if (select) {
+            len += RankedWTNode.selectBytes(size);
+        }
+        switch (options & (WAVELET_MATRIX | PACKED_ARRAY)) {
+            case WAVELET_MATRIX: len += IndexWaveletMatrix.size(ssa_len, select); break;
+            case PACKED_ARRAY: len += PackedIndexArray.size(ssa_len); break;
+            default: len += IndexWaveletTree.size(ssa_len, select);
+        }
+        if ((options & INVERSE_INDEX) != 0) {
+            len += PackedArray.bytes(ssa_len, PackedArray.bits(size - 1));
+        }
+        return len;
+    }
 }
@@ -0,0 +1,214 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Locates the occurrences of the string in the Generalized Succinct Suffix Array.
+ * </p>
+ * <p>
+ * Every located SA row costs up to 2^sampling_factor LF steps, so the rows
+ * of the SA interval are split into chunks which are located in parallel
+ * by the fork-join pool. The located positions are either streamed to the
+ * listener or iterated one by one, so they are never kept in memory at once.
+ * </p>
+ *
+ * @author Dmitry Repchevsky
+ */
+
+public class GSSALocator {
+
+    /**
+     * The number of SA rows located by one task.
+     */
+    public final static int THRESHOLD = 4096;
+
+    private final GSSA gssa;
+    private final ForkJoinPool pool;
+
+    public GSSALocator(GSSA gssa) {
+        this(gssa, ForkJoinPool.commonPool());
+    }
+
+    public GSSALocator(GSSA gssa, ForkJoinPool pool) {
+        this.gssa = gssa;
+        this.pool = pool;
+    }
+
+    /**
+     * Locates all occurrences of the string in parallel.
+     * The listener is called from the pool's threads in no particular order,
+     * so it must be thread safe.
+     * 
+     * @param str the string to find
+     * @param listener the listener to receive the located occurrences
+     * 
+     * @return the number of the occurrences found
+     * 
+     * @throws IOException 
+     */
+    public long locate(byte[] str, Listener listener) throws IOException {
+        gssa.index();
+
+        final long[] interval = gssa.interval(str);
+        if (interval == null) {
+            return 0;
+        }
+
+        pool.invoke(new LocateAction(interval[0], interval[1], (row, pos) -> {
+            final int nstr = gssa.string(pos);
+            listener.found(nstr, pos - gssa.start(nstr));
+        }));
+
+        return interval[1] - interval[0] + 1;
+    }
+
+    /**
+     * Iterates over all occurrences of the string locating them one by one
+     * in the calling thread. The occurrences come in the SA order.
+     * 
+     * @param str the string to find
+     * 
+     * @return the iterator over the occurrences' positions
+     * 
+     * @throws IOException 
+     */
+    public Hits iterator(byte[] str) throws IOException {
+        gssa.index();
+
+        final long[] interval = gssa.interval(str);
+        return interval == null ? new Hits(0, -1) : new Hits(interval[0], interval[1]);
+    }
+
+    /**
+     * Locates all the SA interval rows in parallel.
+     * 
+     * @param sp the start of the SA interval
+     * @param ep the end of the SA interval (inclusive)
+     * 
+     * @return the unsorted positions in the generalized string
+     */
+    long[] locate(long sp, long ep) {
+        final long[] sa = new long[(int)(ep - sp + 1)];
+        pool.invoke(new LocateAction(sp, ep, (row, pos) -> sa[(int)(row - sp)] = pos));
+        return sa;
+    }
+
+    public static interface Listener {
+
+        /**
+         * Receives the located occurrence.
+         *
+         * @param nstr the index of the string the occurrence belongs to
+         * @param pos the position of the occurrence in the nth string
+         */
+        void found(int nstr, long pos);
+    }
+
+    /**
+     * The iterator over the occurrences' positions in the strings.
+     * The string which the position belongs to is provided by 
+     * the {@link #getString()} after the position is returned.
+     */
+    public class Hits implements PrimitiveIterator.OfLong {
+
+        private long row;
+        private final long ep;
+        private int nstr = -1;
+
+        private Hits(long sp, long ep) {
+            this.row = sp;
+            this.ep = ep;
+        }
+
+        /**
+         * @return the number of the occurrences not iterated yet.
+         */
+        public long remaining() {
+            return ep - row + 1;
+        }
+
+        /**
+         * @return the index of the string the last returned position belongs to.
+         */
+        public int getString() {
+            return nstr;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return row <= ep;
+        }
+
+        @Override
+        public long nextLong() {
+            if (row > ep) {
+                throw new NoSuchElementException();
+            }
+            final long pos = gssa.locate(row++);
+            nstr = gssa.string(pos);
+            return pos - gssa.start(nstr);
+        }
+    }
+
+    private static interface Sink {
+        void put(long row, long pos);
+    }
+
+    private class LocateAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long sp;
+        private final long ep;
+        private final Sink sink;
+
+        LocateAction(long sp, long ep, Sink sink) {
+            this.sp = sp;
+            this.ep = ep;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            if (ep - sp < THRESHOLD) {
+                for (long row = sp; row <= ep; row++) {
+                    sink.put(row, gssa.locate(row));
+                }
+            } else {
+                final long mid = (sp + ep) >>> 1;
+                invokeAll(new LocateAction(sp, mid, sink), new LocateAction(mid + 1, ep, sink));
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Finds super-maximal exact matches (SMEMs) of the query in the GSSA.
+ * </p>
+ * <p>
+ * SMEM is a substring of the query which occurs in the text, can not be 
+ * extended in any direction and is not contained in any other match.
+ * </p>
+ * <p>
+ * With the bidirectional index the matches are found by the forward and 
+ * backward extensions of the synchronized intervals, so every SA interval 
+ * is computed once for all the matches that share it. 
+ * With the forward index only, the longest match ending at every query 
+ * position is found by the backward search. The match is an SMEM when the
+ * longest match ending at the next position starts after it.
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class GSSAMaximalMatches {
+    
+    private final GSSA gssa;
+    private final BidirectionalGSSA bgssa;
+
+    public GSSAMaximalMatches(GSSA gssa) {
+        this.gssa = gssa;
+        this.bgssa = null;
+    }
+
+    public GSSAMaximalMatches(BidirectionalGSSA bgssa) {
+        this.gssa = bgssa.getGSSA();
+        this.bgssa = bgssa;
+    }
+
+    /**
+     * Finds all super-maximal exact matches of the query.
+     * 
+     * @param query the query to find matches for
+     * @param min_length the minimal length of the reported matches
+     * 
+     * @return the list of matches sorted by their query offsets
+     * 
+     * @throws IOException 
+     */
+    public List<Match> find(byte[] query, int min_length) throws IOException {
+        gssa.index();
+
+        final List<Match> matches = new ArrayList<>();
+        if (bgssa == null) {
+            backward(query, Math.max(min_length, 1), matches);
+        } else {
+            for (int x = 0; x < query.length;) {
+                x = smem(query, x, Math.max(min_length, 1), matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Locates all occurrences of the match.
+     * 
+     * @param match the match to locate
+     * 
+     * @return the array[nth][pos] with all occurrences of the match
+     * 
+     * @throws IOException 
+     */
+    public long[][] locate(Match match) throws IOException {
+        gssa.index();
+        return gssa.find(match.sp, match.ep);
+    }
+
+    /**
+     * Finds the longest match ending at every query position by the 
+     * backward search going from the end of the query.
+     */
+    private void backward(byte[] query, int min_length, List<Match> matches) {
+        final long[] interval = new long[2];
+        final long[] next = new long[2];
+
+        int start = Integer.MAX_VALUE; // the start of the longest match ending at the next position
+        for (int end = query.length; end > 0; end--) {
+            interval[0] = 0;
+            interval[1] = gssa.getLength() - 1;
+            
+            int i = end;
+            while (i > 0) {
+                next[0] = interval[0];
+                next[1] = interval[1];
+                if (query[i - 1] == 0 || !gssa.step(query[i - 1] & 0xFF, next)) {
+                    break;
+                }
+                interval[0] = next[0];
+                interval[1] = next[1];
+                i--;
+            }
+
+            if (i < start && end - i >= min_length) {
+                matches.add(new Match(i, end - i, interval[0], interval[1]));
+            }
+            start = i;
+        }
+        Collections.reverse(matches);
+    }
+
+    /**
+     * Finds all SMEMs that contain the query position.
+     * 
+     * @param query the query to find matches for
+     * @param x the query position
+     * @param min_length the minimal length of the reported matches
+     * @param matches the list to add the found matches to
+     * 
+     * @return the end of the longest match that contains the position
+     */
+    private int smem(byte[] query, int x, int min_length, List<Match> matches) {
+        long[] interval = bgssa.interval();
+        if (!bgssa.extendRight(query[x] & 0xFF, interval)) {
+            return x + 1;
+        }
+
+        // intervals {sp, rsp, size, end} of the distinct right extensions
+        List<long[]> prev = new ArrayList<>();
+        int i = x + 1;
+        for (; i < query.length; i++) {
+            final long[] next = new long[] {interval[0], interval[1], interval[2], i};
+            final boolean found = bgssa.extendRight(query[i] & 0xFF, next);
+            if (!found || next[2] != interval[2]) {
+                prev.add(new long[] {interval[0], interval[1], interval[2], i});
+            }
+            if (!found) {
+                break;
+            }
+            interval = next;
+        }
+        if (i == query.length) {
+            prev.add(new long[] {interval[0], interval[1], interval[2], i});
+        }
+        Collections.reverse(prev); // the longest extensions first
+        final int end = (int)prev.get(0)[3];
+
+        final int first = matches.size();
+        int last = Integer.MAX_VALUE; // the start of the last found match
+        for (i = x - 1; i >= -1; i--) {
+            final List<long[]> curr = new ArrayList<>();
+            for (long[] p : prev) {
+                final long[] next = p.clone();
+                if (i < 0 || !bgssa.extendLeft(query[i] & 0xFF, next)) {
+                    // the longest extension which can not go further
+                    if (curr.isEmpty() && i + 1 < last) {
+                        last = i + 1;
+                        final int length = (int)p[3] - last;
+                        if (length >= min_length) {
+                            matches.add(first, new Match(last, length, p[0], p[0] + p[2] - 1));
+                        }
+                    }
+                } else if (curr.isEmpty() || next[2] != curr.get(curr.size() - 1)[2]) {
+                    curr.add(next);
+                }
+            }
+            if (curr.isEmpty()) {
+                break;
+            }
+            prev = curr;
+        }
+        return end;
+    }
+
+    /**
+     * The exact match of the query substring.
+     */
+    public static class Match {
+        
+        /**
+         * The offset of the match in the query.
+         */
+        public final int offset;
+        
+        /**
+         * The length of the match.
+         */
+        public final int length;
+        
+        /**
+         * The SA interval [sp, ep] of the match.
+         */
+        public final long sp;
+        public final long ep;
+
+        public Match(int offset, int length, long sp, long ep) {
+            this.offset = offset;
+            this.length = length;
+            this.sp = sp;
+            this.ep = ep;
+        }
+
+        /**
+         * @return the number of the match occurrences
+         */
+        public long count() {
+            return ep - sp + 1;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The lookup table with SA intervals of all k-mers over the BWT alphabet.
+ * </p>
+ * <p>
+ * The first k steps of the backward search are replaced by one lookup.
+ * The table is built by the depth-first traversal of all k-mers' suffixes,
+ * so every common suffix is searched only once.
+ * The length of k-mers is reduced to keep the table within 
+ * {@link #MAX_ENTRIES} entries (16 bytes each).
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+class KmerTable {
+
+    /**
+     * The maximal number of k-mers in the table.
+     */
+    final static int MAX_ENTRIES = 1 << 20;
+
+    final int k;
+
+    private final int[] symbols;
+    private final int[] digits; // symbols' indexes in the alphabet (-1 for absent symbols)
+    private final long[] table; // {sp, size} for every k-mer
+
+    /**
+     * Builds the k-mer table.
+     * 
+     * @param gssa the generalized succinct suffix array
+     * @param k the desired length of k-mers
+     */
+    KmerTable(GSSA gssa, int k) {
+        symbols = gssa.alphabet();
+        
+        digits = new int[256];
+        Arrays.fill(digits, -1);
+        for (int i = 0; i < symbols.length; i++) {
+            digits[symbols[i]] = i;
+        }
+
+        int len = 0;
+        long entries = 1;
+        while (len < k && entries * symbols.length <= MAX_ENTRIES) {
+            entries *= symbols.length;
+            len++;
+        }
+        this.k = len;
+
+        table = new long[(int)entries * 2];
+        if (len > 0) {
+            build(gssa, 0, 0, 1, new long[] {0, gssa.getLength() - 1});
+        }
+    }
+
+    /**
+     * Finds the SA interval of the last k symbols of the string.
+     * 
+     * @param str the string which is at least k symbols long
+     * @param interval the SA interval {sp, ep} to be updated
+     * 
+     * @return false if the k-mer is not found
+     */
+    boolean find(byte[] str, long[] interval) {
+        int code = 0;
+        for (int i = str.length - k, n = str.length; i < n; i++) {
+            final int digit = digits[str[i] & 0xFF];
+            if (digit < 0) {
+                return false;
+            }
+            code = code * symbols.length + digit;
+        }
+
+        final long size = table[code * 2 + 1];
+        if (size == 0) {
+            return false;
+        }
+        interval[0] = table[code * 2];
+        interval[1] = interval[0] + size - 1;
+        return true;
+    }
+
+    /**
+     * Recursively fills the table with all k-mers ending with the suffix.
+     * 
+     * @param gssa the generalized succinct suffix array
+     * @param depth the length of the k-mer's suffix
+     * @param code the code of the k-mer's suffix
+     * @param weight the weight of the next symbol in the k-mer's code
+     * @param interval the SA interval of the k-mer's suffix
+     */
+    private void build(GSSA gssa, int depth, int code, int weight, long[] interval) {
+        if (depth == k) {
+            table[code * 2] = interval[0];
+            table[code * 2 + 1] = interval[1] - interval[0] + 1;
+            return;
+        }
+
+        final long[] next = new long[2];
+        for (int i = 0; i < symbols.length; i++) {
+            next[0] = interval[0];
+            next[1] = interval[1];
+            if (gssa.step(symbols[i], next)) {
+                build(gssa, depth + 1, code + i * weight, weight * symbols.length, next);
+            }
+        }
+    }
+}
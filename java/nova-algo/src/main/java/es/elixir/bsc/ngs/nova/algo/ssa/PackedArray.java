@@ -0,0 +1,134 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
+import java.nio.ByteBuffer;
+
+/**
+ * The array of fixed width (1..63 bits) unsigned values packed into 
+ * little endian longs.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class PackedArray {
+
+    public final long size;
+    public final int bits;
+
+    private final long mask;
+    private final LargeByteBuffer buf;
+
+    /**
+     * Create the packed array in memory.
+     * 
+     * @param size the number of values
+     * @param bits the width of values in bits
+     */
+    public PackedArray(long size, int bits) {
+        this(LargeByteBuffer.allocate(bytes(size, bits)), size, bits);
+    }
+
+    /**
+     * Create the packed array over the buffer.
+     * The buffer position is moved to the end of the array.
+     * 
+     * @param in the buffer to keep the array
+     * @param size the number of values
+     * @param bits the width of values in bits
+     */
+    public PackedArray(ByteBuffer in, long size, int bits) {
+        this(LargeByteBuffer.wrap(in), size, bits);
+    }
+
+    /**
+     * Create the packed array over the buffer which may be bigger than 2Gb.
+     * The buffer position is moved to the end of the array.
+     * 
+     * @param in the buffer to keep the array
+     * @param size the number of values
+     * @param bits the width of values in bits
+     */
+    public PackedArray(LargeByteBuffer in, long size, int bits) {
+        if (bits < 1 || bits > 63) {
+            throw new IllegalArgumentException("invalid packed value width: " + bits);
+        }
+
+        this.size = size;
+        this.bits = bits;
+        
+        mask = (1L << bits) - 1;
+
+        buf = in.slice();
+        buf.limit(bytes(size, bits));
+        in.position(in.position() + buf.limit());
+    }
+
+    public long get(long idx) {
+        final long bit = idx * bits;
+        final long pos = (bit >>> 6) << 3;
+        final int shift = (int)(bit & 63);
+        
+        long value = buf.getLong(pos) >>> shift;
+        if (shift + bits > 64) {
+            value |= buf.getLong(pos + 8) << (64 - shift);
+        }
+        return value & mask;
+    }
+
+    public void put(long idx, long value) {
+        final long bit = idx * bits;
+        final long pos = (bit >>> 6) << 3;
+        final int shift = (int)(bit & 63);
+
+        buf.putLong(pos, buf.getLong(pos) & ~(mask << shift) | (value & mask) << shift);
+        if (shift + bits > 64) {
+            final int hi = 64 - shift;
+            buf.putLong(pos + 8, buf.getLong(pos + 8) & ~(mask >>> hi) | (value & mask) >>> hi);
+        }
+    }
+
+    /**
+     * @return the number of bits needed to store values in [0..max].
+     */
+    public static int bits(long max) {
+        return Math.max(1, 64 - Long.numberOfLeadingZeros(max));
+    }
+
+    /**
+     * Calculates the size of the packed array in bytes.
+     * 
+     * @param size the number of values
+     * @param bits the width of values in bits
+     * 
+     * @return the size of the array in bytes (aligned to longs)
+     */
+    public static long bytes(long size, int bits) {
+        return ((size * bits + 63) >>> 6) << 3;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import es.elixir.bsc.ngs.nova.algo.tree.IndexArray;
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
+import java.nio.ByteBuffer;
+
+/**
+ * The index array kept as two packed arrays: the indexes and their positions
+ * (the inverse permutation), so both operations are one array read.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class PackedIndexArray implements IndexArray {
+    
+    private final PackedArray values;
+    private final PackedArray positions;
+    
+    /**
+     * Create the PackedIndexArray from its serialized form.
+     * 
+     * @param in buffer that contains the packed arrays
+     * @param size size of the index
+     */
+    public PackedIndexArray(ByteBuffer in, long size) {
+        this(LargeByteBuffer.wrap(in), size);
+    }
+
+    /**
+     * Create the PackedIndexArray from its serialized form.
+     * 
+     * @param in buffer that contains the packed arrays
+     * @param size size of the index
+     */
+    public PackedIndexArray(LargeByteBuffer in, long size) {
+        final int bits = PackedArray.bits(size - 1);
+        values = new PackedArray(in, size, bits);
+        positions = new PackedArray(in, size, bits);
+    }
+    
+    /**
+     * Create the PackedIndexArray from the index array.
+     * 
+     * @param sa the index array
+     * @param dst the buffer to write the arrays into (null to allocate)
+     */
+    public PackedIndexArray(int[] sa, ByteBuffer dst) {
+        final int bits = PackedArray.bits(sa.length - 1);
+        values = dst == null ? new PackedArray(sa.length, bits) : new PackedArray(dst, sa.length, bits);
+        positions = dst == null ? new PackedArray(sa.length, bits) : new PackedArray(dst, sa.length, bits);
+        for (int i = 0; i < sa.length; i++) {
+            values.put(i, sa[i]);
+            positions.put(sa[i], i);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return values.size;
+    }
+
+    @Override
+    public long get(long pos) {
+        return values.get(pos);
+    }
+
+    @Override
+    public long find(long idx) {
+        return positions.get(idx);
+    }
+
+    /**
+     * Calculates the space in bytes needed to store <i>len</i> indexes.
+     * 
+     * @param len the size of index array (number of indexes).
+     * 
+     * @return the size in bytes of both packed arrays.
+     */
+    public static long size(long len) {
+        return 2 * PackedArray.bytes(len, PackedArray.bits(len - 1));
+    }
+}
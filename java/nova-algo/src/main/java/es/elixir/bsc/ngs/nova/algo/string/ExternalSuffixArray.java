@@ -0,0 +1,549 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.string;
+
+import es.elixir.bsc.ngs.nova.algo.tree.HSWTShape;
+import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree;
+import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree.DataSource;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * The suffix array which is built under the memory budget and kept in 
+ * the temporary file.
+ * The text is split into the blocks which are processed from the end 
+ * (as in pSAscan by Karkkainen, Kempa and Puglisi). 
+ * The last block is sorted by SAIS. For every preceding block, the ranks 
+ * of its suffixes among the already sorted ones (the tail) are found by 
+ * the backward search in the HSWT of the tail's BWT, the block's suffixes 
+ * are sorted by these ranks and then merged with the tail's suffix array 
+ * streamed from the file.
+ * Only the text, the tail's HSWT and one block are kept in memory.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class ExternalSuffixArray implements Closeable {
+    
+    /**
+     * The memory (in bytes) used for every suffix of the block.
+     */
+    public final static int BLOCK_BYTES = 20;
+    
+    /**
+     * The minimal block size.
+     */
+    public final static int MIN_BLOCK = 1 << 16;
+    
+    /**
+     * The size of the (heap) buffers used to stream the suffix array.
+     */
+    private final static int BUFFER_SIZE = 1 << 20;
+    
+    private final ByteBuffer s;
+    private final Path dir;
+    private FileChannel channel;
+    
+    /**
+     * Builds the suffix array in the default temporary directory.
+     * 
+     * @param s the text
+     * @param max_memory the memory budget (in bytes) including the text
+     * 
+     * @throws IOException 
+     * @throws IllegalArgumentException if the budget doesn't fit the minimal block
+     */
+    public ExternalSuffixArray(ByteBuffer s, long max_memory) throws IOException {
+        this(s, blockSize(s, max_memory), null);
+    }
+
+    /**
+     * @param s the text
+     * @param block the number of suffixes sorted at once
+     * @param dir the directory for the temporary files (null for the default one)
+     * 
+     * @throws IOException 
+     */
+    public ExternalSuffixArray(ByteBuffer s, int block, Path dir) throws IOException {
+        this.s = s;
+        this.dir = dir;
+        
+        final int n = s.limit();
+        int start = Math.max(0, n - block);
+        
+        try {
+            // the last block is sorted in memory
+            final ByteBuffer tail = s.duplicate();
+            tail.position(start);
+            final int[] sa = SAIS.suffix(tail.slice());
+
+            channel = create();
+            try (IntWriter writer = new IntWriter(channel)) {
+                for (int i = 0; i < sa.length; i++) {
+                    writer.put(sa[i] + start);
+                }
+            }
+
+            while (start > 0) {
+                final int next = Math.max(0, start - block);
+                merge(next, start);
+                start = next;
+            }
+        } catch(IOException | RuntimeException | Error ex) {
+            close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * @return the length of the suffix array
+     */
+    public int length() {
+        return s.limit();
+    }
+    
+    /**
+     * Creates the new iterator over the suffix array.
+     * Different iterators may be used concurrently.
+     * 
+     * @return the iterator over the suffix array values
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new IntReader(channel, s.limit());
+    }
+    
+    /**
+     * Creates the BWT data source streamed from the suffix array.
+     * Note that the symbols must be read sequentially (0, 1, 2, ...).
+     * 
+     * @return the BWT data source
+     */
+    public DataSource bwt() {
+        return new BWTStream(iterator(), 0);
+    }
+    
+    /**
+     * Calculates the block size for the memory budget.
+     * The budget must fit at least the minimal block (or the whole text when
+     * it is shorter): with smaller blocks every merge would rebuild the tail's 
+     * HSWT for a few suffixes only, and the memory still would be exceeded.
+     * 
+     * @param s the text
+     * @param max_memory the memory budget (in bytes) including the text
+     * 
+     * @return the number of suffixes to be sorted at once
+     * 
+     * @throws IllegalArgumentException if the budget doesn't fit the minimal block
+     */
+    public static int blockSize(ByteBuffer s, long max_memory) {
+        final int n = s.limit();
+        final long free = max_memory - reserved(s);
+        final int min = Math.min(n, MIN_BLOCK);
+        if (free < (long)BLOCK_BYTES * min) {
+            throw new IllegalArgumentException("the memory budget (" + max_memory + 
+                    " bytes) is less than the minimum of " + minMemory(s) + " bytes");
+        }
+        return (int)Math.min(n, free / BLOCK_BYTES);
+    }
+
+    /**
+     * @param s the text
+     * 
+     * @return the minimal memory budget (in bytes) the text may be sorted with
+     */
+    public static long minMemory(ByteBuffer s) {
+        return reserved(s) + (long)BLOCK_BYTES * Math.min(s.limit(), MIN_BLOCK);
+    }
+
+    /**
+     * @return the memory (in bytes) used by the sorting apart from the block
+     */
+    private static long reserved(ByteBuffer s) {
+        final int n = s.limit();
+        // the whole text's HSWT is the upper bound for the tail's one.
+        // the merge streams through three buffers (two readers and the writer)
+        // and the channel copies them through its temporary direct buffer.
+        return n + new HSWTShape(counts(s, 0, n)).size + 4L * BUFFER_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Merges the block's suffixes into the suffix array of the tail.
+     * 
+     * @param start the beginning of the block
+     * @param end the end of the block (the beginning of the tail)
+     * 
+     * @throws IOException 
+     */
+    private void merge(final int start, final int end) throws IOException {
+        final int n = s.limit();
+        final int len = n - end;
+        final int m = end - start;
+
+        final BWTStream bwt = new BWTStream(new IntReader(channel, len), end);
+        final HuffmanShapedWaveletTree tree = HuffmanShapedWaveletTree.write(new HSWTShape(counts(s, end, n)), bwt, null);
+        
+        final int[] r = ranks(s, start, end, tree, bwt.row);
+        final int[] sa = sort(s, start, r, bwt.row);
+        
+        final FileChannel merged = create();
+        try (IntWriter writer = new IntWriter(merged)) {
+            final PrimitiveIterator.OfInt tail = new IntReader(channel, len);
+            int j = 0;
+            for (int i = 0; i <= len; i++) {
+                while (j <= m) {
+                    final int pos = sa[j];
+                    if (pos < m) {
+                        if (r[pos] > i) {
+                            break;
+                        }
+                        writer.put(start + pos);
+                    }
+                    j++;
+                }
+                if (i < len) {
+                    writer.put(tail.nextInt());
+                }
+            }
+        } catch(IOException | RuntimeException ex) {
+            merged.close();
+            throw ex;
+        }
+        
+        channel.close();
+        channel = merged;
+    }
+    
+    /**
+     * @param s the text
+     * @param from the first position to count
+     * @param to the last position to count (exclusive)
+     * 
+     * @return the symbols' frequencies in s[from .. to)
+     */
+    static long[] counts(ByteBuffer s, int from, int to) {
+        final long[] counts = new long[256];
+        for (int i = from; i < to; i++) {
+            counts[s.get(i) & 0xFF]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Finds the number of the tail's suffixes smaller than every block's one
+     * by the backward search in the tail's BWT.
+     * 
+     * @param s the text
+     * @param start the beginning of the block
+     * @param end the end of the block (the beginning of the tail)
+     * @param tree the HSWT of the tail's BWT (the tail's row has the last text symbol)
+     * @param row the rank of the tail among its suffixes
+     * 
+     * @return the ranks of the block's suffixes
+     */
+    static int[] ranks(ByteBuffer s, int start, int end, HuffmanShapedWaveletTree tree, int row) {
+        final long[] c = new long[256];
+        for (int i = 1; i < 256; i++) {
+            c[i] = c[i - 1] + tree.shape.counts[i - 1];
+        }
+
+        final int last = s.get(s.limit() - 1) & 0xFF;
+
+        final int[] r = new int[end - start];
+        for (int i = r.length - 1, rank = row; i >= 0; i--) {
+            final int ch = s.get(start + i) & 0xFF;
+            long k = c[ch];
+            if (rank > 0) {
+                k += tree.occ(ch, rank - 1) + 1;
+            }
+            if (ch == last && row >= rank) {
+                k++; // the empty tail's suffix (n)
+            }
+            r[i] = rank = (int)k;
+        }
+        return r;
+    }
+
+    /**
+     * Sorts the block's suffixes by the string of pairs (rank, symbol) 
+     * terminated by the unique pair of the tail (row, 256).
+     * The sorting is done by the prefix doubling (Manber and Myers).
+     * 
+     * @param s the text
+     * @param start the beginning of the block
+     * @param r the ranks of the block's suffixes among the tail's ones
+     * @param row the rank of the tail
+     * 
+     * @return the sorted block's positions (m = r.length is the tail one)
+     */
+    static int[] sort(final ByteBuffer s, final int start, final int[] r, final int row) {
+        final int m = r.length;
+        
+        int[] sa = new int[m + 1];
+        int[] rank = new int[m + 1];
+        int[] tmp = new int[m + 1];
+        final int[] cnt = new int[Math.max(m + 2, 258)];
+        
+        // the dense ranks of r[]
+        System.arraycopy(r, 0, tmp, 0, m);
+        tmp[m] = row;
+        Arrays.sort(tmp);
+        int k = 0;
+        for (int i = 0; i <= m; i++) {
+            if (i == 0 || tmp[i] != tmp[k - 1]) {
+                tmp[k++] = tmp[i];
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            rank[i] = Arrays.binarySearch(tmp, 0, k, r[i]);
+        }
+        rank[m] = Arrays.binarySearch(tmp, 0, k, row);
+
+        // sort by the symbols and then (stable) by the ranks
+        Arrays.fill(cnt, 0, 258, 0);
+        for (int i = 0; i < m; i++) {
+            cnt[(s.get(start + i) & 0xFF) + 1]++;
+        }
+        cnt[257]++;
+        for (int i = 1; i < 258; i++) {
+            cnt[i] += cnt[i - 1];
+        }
+        for (int i = 0; i <= m; i++) {
+            sa[cnt[i < m ? s.get(start + i) & 0xFF : 256]++] = i;
+        }
+        
+        Arrays.fill(cnt, 0, k + 1, 0);
+        for (int i = 0; i <= m; i++) {
+            cnt[rank[i] + 1]++;
+        }
+        for (int i = 1; i <= k; i++) {
+            cnt[i] += cnt[i - 1];
+        }
+        for (int i = 0; i <= m; i++) {
+            final int pos = sa[i];
+            tmp[cnt[rank[pos]]++] = pos;
+        }
+
+        int[] swap = sa; sa = tmp; tmp = swap;
+        
+        int g = 0;
+        for (int i = 0, prank = -1, pch = -1; i <= m; i++) {
+            final int pos = sa[i];
+            final int ch = pos < m ? s.get(start + pos) & 0xFF : 256;
+            if (rank[pos] != prank || ch != pch) {
+                prank = rank[pos];
+                pch = ch;
+                g++;
+            }
+            tmp[pos] = g - 1;
+        }
+        swap = rank; rank = tmp; tmp = swap;
+
+        for (int h = 1; g <= m; h <<= 1) {
+            // order by the second key (the suffixes shorter than h first)
+            int j = 0;
+            for (int i = Math.max(0, m + 1 - h); i <= m; i++) {
+                tmp[j++] = i;
+            }
+            for (int i = 0; i <= m; i++) {
+                final int pos = sa[i];
+                if (pos >= h) {
+                    tmp[j++] = pos - h;
+                }
+            }
+
+            // stable sort by the first key
+            Arrays.fill(cnt, 0, g + 1, 0);
+            for (int i = 0; i <= m; i++) {
+                cnt[rank[i] + 1]++;
+            }
+            for (int i = 1; i <= g; i++) {
+                cnt[i] += cnt[i - 1];
+            }
+            for (int i = 0; i <= m; i++) {
+                final int pos = tmp[i];
+                sa[cnt[rank[pos]]++] = pos;
+            }
+            
+            g = 0;
+            for (int i = 0, prank = -1, pnext = -1; i <= m; i++) {
+                final int pos = sa[i];
+                final int next = pos + h <= m ? rank[pos + h] : -1;
+                if (rank[pos] != prank || next != pnext) {
+                    prank = rank[pos];
+                    pnext = next;
+                    g++;
+                }
+                tmp[pos] = g - 1;
+            }
+            swap = rank; rank = tmp; tmp = swap;
+        }
+        
+        return sa;
+    }
+    
+    private FileChannel create() throws IOException {
+        final Path path = dir == null ? Files.createTempFile("gecoz", ".sa") : 
+                                        Files.createTempFile(dir, "gecoz", ".sa");
+        return FileChannel.open(path, EnumSet.of(READ, WRITE, DELETE_ON_CLOSE));
+    }
+
+    /**
+     * The BWT data source over the (tail's) suffix array.
+     * The BWT symbol of the tail itself is the last symbol of the text.
+     */
+    private final class BWTStream implements DataSource {
+        
+        private final PrimitiveIterator.OfInt sa;
+        private final int start;
+        private int row;
+        
+        BWTStream(PrimitiveIterator.OfInt sa, int start) {
+            this.sa = sa;
+            this.start = start;
+        }
+
+        @Override
+        public byte get(int idx) {
+            final int pos = sa.nextInt();
+            if (pos == start) {
+                row = idx;
+                return s.get(s.limit() - 1);
+            }
+            return s.get(pos - 1);
+        }
+
+        @Override
+        public int length() {
+            return s.limit() - start;
+        }
+    }
+
+    /**
+     * Sequential suffix array reader.
+     */
+    private static class IntReader implements PrimitiveIterator.OfInt {
+
+        private final FileChannel channel;
+        private final ByteBuffer buf;
+        private final int length;
+        private long position;
+        private int idx;
+        
+        IntReader(FileChannel channel, int length) {
+            this.channel = channel;
+            this.length = length;
+            buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buf.limit(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return idx < length;
+        }
+
+        @Override
+        public int nextInt() {
+            if (idx >= length) {
+                throw new NoSuchElementException();
+            }
+            if (!buf.hasRemaining()) {
+                buf.clear();
+                buf.limit((int)Math.min(BUFFER_SIZE, 4L * (length - idx)));
+                try {
+                    do {
+                        final int bytes = channel.read(buf, position);
+                        if (bytes < 0) {
+                            throw new EOFException();
+                        }
+                        position += bytes;
+                    } while (buf.hasRemaining());
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                buf.flip();
+            }
+            idx++;
+            return buf.getInt();
+        }
+    }
+    
+    /**
+     * Sequential suffix array writer.
+     */
+    private static class IntWriter implements Closeable {
+        
+        private final FileChannel channel;
+        private final ByteBuffer buf;
+        
+        IntWriter(FileChannel channel) {
+            this.channel = channel;
+            buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void put(int value) throws IOException {
+            if (!buf.hasRemaining()) {
+                flush();
+            }
+            buf.putInt(value);
+        }
+        
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -33,11 +33,19 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class implements SACA-K suffix array construction method (doi:10.1145/2493175.2493180).
  * When there is enough space for buckets may be allocated, the iteration is done via SA-IS algorithm (doi:10.1109/DCC.2009.42).
+ * The induced sorting of the original string may be done by several threads (doi:10.1109/DCC.2017.41).
  * 
  * @author Dmitry Repchevsky
  */
@@ -93,6 +101,12 @@ public class SAIS {
         return sa;
     }
 
+    /**
+     * The number of suffix array entries prepared at once by the parallel 
+     * induced sorting.
+     */
+    private final static int INDUCE_BLOCK = 1 << 17;
+
     /**
      * 
      * @param s the original array
@@ -101,6 +115,52 @@ public class SAIS {
      * @return alphabet buckets' indexes ( 0 .. 255 ) or null if s.length != sa.length
      */
     public static int[] suffix(ByteBuffer s, int[] sa) {
+        return suffix(s, sa, (ParallelInduction)null);
+    }
+
+    /**
+     * Builds the suffix array inducing the suffixes of the original string 
+     * in parallel. The result is the same as of the sequential construction.
+     * 
+     * @param s the original array
+     * @param sa the suffix array
+     * @param threads the number of threads to use
+     * 
+     * @return alphabet buckets' indexes ( 0 .. 255 ) or null if s.length != sa.length
+     */
+    public static int[] suffix(ByteBuffer s, int[] sa, int threads) {
+        if (threads < 2 || sa.length < INDUCE_BLOCK) {
+            return suffix(s, sa);
+        }
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return suffix(s, sa, executor, threads);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Builds the suffix array inducing the suffixes of the original string 
+     * by the tasks of the executor. The executor may be shared by several 
+     * constructions, so all of them together use only its threads.
+     * 
+     * @param s the original array
+     * @param sa the suffix array
+     * @param executor the executor to run the tasks (null - sequential construction)
+     * @param threads the number of tasks every block is split into
+     * 
+     * @return alphabet buckets' indexes ( 0 .. 255 ) or null if s.length != sa.length
+     */
+    public static int[] suffix(ByteBuffer s, int[] sa, ExecutorService executor, int threads) {
+        if (executor == null || threads < 2 || sa.length < INDUCE_BLOCK) {
+            return suffix(s, sa);
+        }
+        return suffix(s, sa, new ParallelInduction(executor, threads));
+    }
+
+    private static int[] suffix(ByteBuffer s, int[] sa, ParallelInduction induction) {
         if (s.limit() != sa.length) {
             return null;
         }
@@ -115,7 +175,12 @@ public class SAIS {
 
         final int n = fillSA(s, sa, Arrays.copyOf(bk2, bk2.length));
         if (n > 1) {
-            sortLMS(s, sa, Arrays.copyOf(bk1, bk1.length), Arrays.copyOf(bk2, bk2.length));
+            if (induction == null) {
+                sortLMS(s, sa, Arrays.copyOf(bk1, bk1.length), Arrays.copyOf(bk2, bk2.length));
+            } else {
+                induction.scanL(s, sa, Arrays.copyOf(bk1, bk1.length), true);
+                induction.scanS(s, sa, Arrays.copyOf(bk2, bk2.length), true);
+            }
             compactLMS(sa, sa.length, n);
 
             int l = nameSubstrS(s, sa, n);
@@ -132,7 +197,12 @@ public class SAIS {
             putSuffix(s, sa, n, Arrays.copyOf(bk2, bk2.length));
         }
 
-        induceLMS(s, sa, bk1, Arrays.copyOf(bk2, bk2.length));
+        if (induction == null) {
+            induceLMS(s, sa, bk1, Arrays.copyOf(bk2, bk2.length));
+        } else {
+            induction.scanL(s, sa, bk1, false);
+            induction.scanS(s, sa, Arrays.copyOf(bk2, bk2.length), false);
+        }
         return bk2;
     }
 
@@ -1311,4 +1381,179 @@ public class SAIS {
 
         return pos;
     }
+    
+    /**
+     * <p>
+     * Parallel induced sorting of the original string suffixes.
+     * </p>
+     * <p>
+     * The suffix array is scanned in blocks. For every suffix already in the 
+     * block, its preceding symbol and the type of the preceding suffix (the 
+     * random text reads) are prepared in parallel. Then the block is scanned
+     * sequentially exactly as in sortLMS() / induceLMS(), putting the prepared 
+     * suffixes into their buckets. Suffixes that are induced into the same 
+     * block after the preparation are recalculated in place.
+     * </p>
+     */
+    private final static class ParallelInduction {
+        
+        private final ExecutorService executor;
+        private final int threads;
+        
+        private final int[] seen;  // the suffixes found in the block when prepared
+        private final int[] next;  // the suffixes to be induced (~ for not to be scanned)
+        private final byte[] chs;  // the preceding symbols (the buckets to induce into)
+        
+        private final List<Callable<Void>> tasks;
+        
+        ParallelInduction(ExecutorService executor, int threads) {
+            this.executor = executor;
+            this.threads = threads;
+            
+            seen = new int[INDUCE_BLOCK];
+            next = new int[INDUCE_BLOCK];
+            chs = new byte[INDUCE_BLOCK];
+            
+            tasks = new ArrayList<>(threads);
+        }
+
+        /**
+         * Induces 'L' type suffixes from left to right.
+         * 
+         * @param s the original array
+         * @param sa the suffix array
+         * @param bk1 start pointers of the buckets
+         * @param sort whether LMS substrings are sorted (sortLMS) or the suffixes (induceLMS)
+         */
+        void scanL(final ByteBuffer s, final int[] sa, final int[] bk1, final boolean sort) {
+            final int l0 = sa.length - 1;
+            int ch0 = s.get(l0) & 0xFF;
+            int b = bk1[ch0];
+            sa[b++] = l0 == 0 || ch0 > (s.get(l0 - 1) & 0xFF) ? ~l0 : l0;
+
+            for (int from = 0; from <= l0; from += INDUCE_BLOCK) {
+                final int to = Math.min(from + INDUCE_BLOCK, l0 + 1);
+                prepare(s, sa, from, to, 0, true);
+                
+                for (int i = from; i < to; i++) {
+                    final int p = sa[i];
+                    if (p > 0) {
+                        final int k = i - from;
+                        final int ch;
+                        final int l;
+                        if (p == seen[k]) {
+                            ch = chs[k] & 0xFF;
+                            l = next[k];
+                        } else {
+                            ch = s.get(p - 1) & 0xFF;
+                            l = p == 1 || ch > (s.get(p - 2) & 0xFF) ? ~(p - 1) : p - 1;
+                        }
+                        if (ch != ch0) {
+                            bk1[ch0] = b;
+                            b = bk1[ch0 = ch];
+                        }
+                        sa[b++] = l;
+                        if (sort) {
+                            sa[i] = 0;
+                        }
+                    } else if (p != 0) {
+                        sa[i] = ~p;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Induces 'S' type suffixes from right to left.
+         * 
+         * @param s the original array
+         * @param sa the suffix array
+         * @param bk2 end pointers of the buckets
+         * @param sort whether LMS substrings are sorted (sortLMS) or the suffixes (induceLMS)
+         */
+        void scanS(final ByteBuffer s, final int[] sa, final int[] bk2, final boolean sort) {
+            final int min = sort ? 1 : 0; // sortLMS does not induce from the suffix 1
+
+            int ch0 = 0;
+            int b = bk2[0];
+            for (int to = sa.length; to > 0; to -= INDUCE_BLOCK) {
+                final int from = Math.max(0, to - INDUCE_BLOCK);
+                prepare(s, sa, from, to, min, false);
+                
+                for (int i = to - 1; i >= from; i--) {
+                    final int p = sa[i];
+                    if (p > min) {
+                        final int k = i - from;
+                        final int ch;
+                        final int l;
+                        if (p == seen[k]) {
+                            ch = chs[k] & 0xFF;
+                            l = next[k];
+                        } else {
+                            ch = s.get(p - 1) & 0xFF;
+                            l = p == 1 || ch < (s.get(p - 2) & 0xFF) ? ~(p - 1) : p - 1;
+                        }
+                        if (ch != ch0) {
+                            bk2[ch0] = b;
+                            b = bk2[ch0 = ch];
+                        }
+                        if (sort || b < i) {
+                            sa[b--] = l;
+                        }
+                    } else if (p < 0 && !sort) {
+                        sa[i] = ~p;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Prepares the suffixes of the block to be induced.
+         * 
+         * @param s the original array
+         * @param sa the suffix array
+         * @param from the first position of the block
+         * @param to the last position of the block + 1
+         * @param min the suffixes that are less or equal are not induced from
+         * @param left whether the 'L' (true) or 'S' (false) suffixes are induced
+         */
+        private void prepare(final ByteBuffer s, final int[] sa, final int from, final int to, final int min, final boolean left) {
+            final int chunk = (to - from + threads - 1) / threads;
+            
+            tasks.clear();
+            for (int lo = from; lo < to; lo += chunk) {
+                final int start = lo;
+                final int end = Math.min(lo + chunk, to);
+                tasks.add(() -> {
+                    for (int i = start; i < end; i++) {
+                        final int p = sa[i];
+                        final int k = i - from;
+                        seen[k] = p;
+                        if (p > min) {
+                            final int ch = s.get(p - 1) & 0xFF;
+                            chs[k] = (byte)ch;
+                            if (p == 1) {
+                                next[k] = ~0;
+                            } else {
+                                final int ch1 = s.get(p - 2) & 0xFF;
+                                next[k] = (left ? ch > ch1 : ch < ch1) ? ~(p - 1) : p - 1;
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+            
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+    }
 }
@@ -0,0 +1,245 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+
+package es.elixir.bsc.ngs.nova.algo.string;
+
+import es.elixir.bsc.ngs.nova.algo.tree.HSWTShape;
+import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree;
+import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree.ByteBufferDataSource;
+import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree.DataSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * The BWT and the sampled suffix array built without the whole suffix array.
+ * The text is processed by blocks from the end: every block's suffixes
+ * are ranked among the tail's ones in the tail's BWT (see ExternalSuffixArray),
+ * sorted and then their BWT symbols are merged into the tail's BWT 
+ * (as in the BWT merging by Ferragina, Gagie and Manzini).
+ * The suffix array values are only kept for the sampled positions, 
+ * so in addition to the text the construction takes n bytes for the BWT,
+ * the sampled suffix array and the memory to sort one block.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class SampledBWT {
+    
+    /**
+     * The default number of blocks the text is split into.
+     */
+    public final static int BLOCKS = 32;
+    
+    private final ByteBuffer s;
+    private final int mask;
+    
+    private final byte[] bwt;
+    private final long[] marks; // the rows of the sampled suffixes
+    private final int[] ssa; // the sampled suffix array values in the rows' order
+    
+    private int len; // the length of the (tail's) BWT
+    private int row; // the tail's row (which BWT symbol is the last one of the text)
+    private int samples; // the number of the (tail's) sampled suffixes
+    
+    public SampledBWT(ByteBuffer s, int sampling_rate) throws IOException {
+        this(s, sampling_rate, blockSize(s.limit()));
+    }
+    
+    /**
+     * @param s the text
+     * @param sampling_rate the sampling rate of the suffix array (8,16,32...)
+     * @param block the number of suffixes sorted at once
+     * 
+     * @throws IOException 
+     */
+    public SampledBWT(ByteBuffer s, int sampling_rate, int block) throws IOException {
+        this.s = s;
+        
+        final int sampling_factor = 31 - Integer.numberOfLeadingZeros(sampling_rate);
+        mask = (1 << sampling_factor) - 1;
+        
+        final int n = s.limit();
+        bwt = new byte[n];
+        marks = new long[(n + 63) >>> 6];
+        ssa = new int[(n + (1 << sampling_factor) - 1) >> sampling_factor];
+        
+        int start = Math.max(0, n - block);
+        
+        // the last block is sorted in memory
+        final ByteBuffer tail = s.duplicate();
+        tail.position(start);
+        final int[] sa = SAIS.suffix(tail.slice());
+        for (int i = 0; i < sa.length; i++) {
+            final int pos = sa[i] + start;
+            if (pos == start) {
+                row = i;
+                bwt[i] = s.get(n - 1);
+            } else {
+                bwt[i] = s.get(pos - 1);
+            }
+            if ((pos & mask) == 0) {
+                marks[i >>> 6] |= 1L << i;
+                ssa[samples++] = pos;
+            }
+        }
+        len = sa.length;
+        
+        while (start > 0) {
+            final int next = Math.max(0, start - block);
+            merge(next, start);
+            start = next;
+        }
+    }
+    
+    /**
+     * @return the length of the BWT
+     */
+    public int length() {
+        return len;
+    }
+
+    /**
+     * @return the BWT data source
+     */
+    public DataSource bwt() {
+        return new ByteBufferDataSource(ByteBuffer.wrap(bwt));
+    }
+
+    /**
+     * Creates the iterator over the suffix array where only the sampled 
+     * values are kept and all others are replaced by -1.
+     * 
+     * @return the iterator over the sampled suffix array
+     */
+    public PrimitiveIterator.OfInt samples() {
+        return new PrimitiveIterator.OfInt() {
+            private int idx;
+            private int sample;
+
+            @Override
+            public boolean hasNext() {
+                return idx < len;
+            }
+            
+            @Override
+            public int nextInt() {
+                if (idx >= len) {
+                    throw new NoSuchElementException();
+                }
+                final int i = idx++;
+                return (marks[i >>> 6] & (1L << i)) == 0 ? -1 : ssa[sample++];
+            }
+        };
+    }
+    
+    /**
+     * @param n the length of the text
+     * 
+     * @return the default block size for the text
+     */
+    public static int blockSize(int n) {
+        return Math.min(n, Math.max(ExternalSuffixArray.MIN_BLOCK, n / BLOCKS));
+    }
+
+    /**
+     * Merges the block's BWT symbols and samples into the tail's ones.
+     * The merge goes from the end, so it is done in place.
+     * 
+     * @param start the beginning of the block
+     * @param end the end of the block (the beginning of the tail)
+     * 
+     * @throws IOException 
+     */
+    private void merge(final int start, final int end) throws IOException {
+        final int n = s.limit();
+        final int m = end - start;
+        
+        final HuffmanShapedWaveletTree tree = HuffmanShapedWaveletTree.write(
+                new HSWTShape(ExternalSuffixArray.counts(s, end, n)), 
+                new ByteBufferDataSource(ByteBuffer.wrap(bwt, 0, len)), null);
+        
+        final int[] r = ExternalSuffixArray.ranks(s, start, end, tree, row);
+        final int[] sa = ExternalSuffixArray.sort(s, start, r, row);
+
+        // the tail's row now has the real preceding symbol
+        bwt[row] = s.get(end - 1);
+        
+        int sample = samples;
+        for (int i = 0; i < m; i++) {
+            if (((start + i) & mask) == 0) {
+                sample++;
+            }
+        }
+        
+        int w = len + m;
+        int ws = sample;
+        int rs = samples;
+        for (int i = len, j = m; i >= 0; i--) {
+            if (i < len) {
+                w--;
+                bwt[w] = bwt[i];
+                final boolean marked = (marks[i >>> 6] & (1L << i)) != 0;
+                mark(w, marked);
+                if (marked) {
+                    ssa[--ws] = ssa[--rs];
+                }
+            }
+            for (; j >= 0; j--) {
+                final int pos = sa[j];
+                if (pos < m) {
+                    if (r[pos] != i) {
+                        break;
+                    }
+                    w--;
+                    if (pos == 0) {
+                        row = w;
+                        bwt[w] = s.get(n - 1);
+                    } else {
+                        bwt[w] = s.get(start + pos - 1);
+                    }
+                    final boolean marked = ((start + pos) & mask) == 0;
+                    mark(w, marked);
+                    if (marked) {
+                        ssa[--ws] = start + pos;
+                    }
+                }
+            }
+        }
+        
+        len += m;
+        samples = sample;
+    }
+    
+    private void mark(int i, boolean marked) {
+        if (marked) {
+            marks[i >>> 6] |= 1L << i;
+        } else {
+            marks[i >>> 6] &= ~(1L << i);
+        }
+    }
+}
@@ -61,9 +61,9 @@ public class DefaultWTNode extends BitBuffer implements WaveletTreeNode {
     @Override
     public void write(ByteBuffer out) throws IOException {
         flush();
-        final int position = buf.position();
+        final long position = buf.position();
         buf.position(0);
-        out.put(buf);
+        buf.get(out);
         buf.position(position);
     }
 
@@ -29,6 +29,7 @@ import es.elixir.bsc.ngs.nova.algo.deflate.DeflateEncodeTable;
 import es.elixir.bsc.ngs.nova.algo.deflate.DeflateLengthsTable;
 import es.elixir.bsc.ngs.nova.algo.deflate.DeflateLookupTable;
 import es.elixir.bsc.ngs.nova.io.BitBuffer;
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -38,6 +39,16 @@ import java.nio.ByteBuffer;
 
 public class HSWTShape {
     
+    /**
+     * The nodes are {@link RankedWTNode}s.
+     */
+    public final static int RANKED_NODES = 0;
+    
+    /**
+     * The nodes are {@link InterleavedWTNode}s (one 64-byte line per rank).
+     */
+    public final static int INTERLEAVED_NODES = 1;
+
     /**
      * The size in bytes of the RFC 1951 3.2.7 Deflate Length Table.
      */
@@ -48,18 +59,32 @@ public class HSWTShape {
      */
     public final long length;
     public final long[] counts;
+    
+    /**
+     * The layout of the nodes' bit vectors (e.g. RANKED_NODES)
+     */
+    public final int layout;
 
     public final DeflateEncodeTable encode;
     public final DeflateLookupTable decode;
     
     public HSWTShape(long[] counts) {
+        this(counts, RANKED_NODES);
+    }
+
+    /**
+     * @param counts the symbols' frequencies
+     * @param layout the layout of the nodes (RANKED_NODES or INTERLEAVED_NODES)
+     */
+    public HSWTShape(long[] counts, int layout) {
         
         this.counts = counts;
+        this.layout = layout;
         
         encode = new DeflateEncodeTable(counts);
         decode = new DeflateLookupTable(encode.bit_lengths);
 
-        int[] lengths = new int[256]; // the size of bit verctors (in bits)
+        long[] lengths = new long[256]; // the size of bit verctors (in bits)
         
         long len = 0;
         for (int i = 0; i < 256; i++) {
@@ -78,7 +103,7 @@ public class HSWTShape {
         long sz = (DeflateLengthsTable.length(encode.bit_lengths) + 7) >>> 3;
         for (int i = 0; i < 256; i++) {
             if (lengths[i] > 0) {
-                sz += RankedWTNode.bytes(lengths[i]);
+                sz += bytes(lengths[i], layout);
             }
         }
         
@@ -86,11 +111,12 @@ public class HSWTShape {
         size = sz;
     }
     
-    private HSWTShape(ByteBuffer in, long length) throws IOException {
+    private HSWTShape(LargeByteBuffer in, long length, int layout) throws IOException {
         
         this.length = length;
+        this.layout = layout;
         
-        final int pos = in.position();
+        final long pos = in.position();
         
         BitBuffer buf = new BitBuffer(in);
         DeflateLengthsTable lengths = new DeflateLengthsTable(buf, 256);        
@@ -105,7 +131,47 @@ public class HSWTShape {
     }
     
     public static HSWTShape read(ByteBuffer in, long length) throws IOException {
-        return new HSWTShape(in, length);
+        return new HSWTShape(LargeByteBuffer.wrap(in), length, RANKED_NODES);
+    }
+
+    /**
+     * Reads the shape of the tree which nodes have the specified layout.
+     * 
+     * @param in the buffer to read the shape from
+     * @param length the length of the data
+     * @param layout the layout of the nodes (RANKED_NODES or INTERLEAVED_NODES)
+     * 
+     * @return the shape of the tree
+     * @throws IOException 
+     */
+    public static HSWTShape read(ByteBuffer in, long length, int layout) throws IOException {
+        return new HSWTShape(LargeByteBuffer.wrap(in), length, layout);
+    }
+
+    /**
+     * Reads the shape of the tree from the buffer which may be bigger than 2Gb.
+     * 
+     * @param in the buffer to read the shape from
+     * @param length the length of the data
+     * @param layout the layout of the nodes (RANKED_NODES or INTERLEAVED_NODES)
+     * 
+     * @return the shape of the tree
+     * @throws IOException 
+     */
+    public static HSWTShape read(LargeByteBuffer in, long length, int layout) throws IOException {
+        return new HSWTShape(in, length, layout);
+    }
+
+    /**
+     * Calculate the size of the node in bytes for the layout.
+     * 
+     * @param len the length of the node in bits
+     * @param layout the layout of the node
+     * 
+     * @return the size of the node in bytes
+     */
+    public static long bytes(long len, int layout) {
+        return layout == INTERLEAVED_NODES ? InterleavedWTNode.bytes(len) : RankedWTNode.bytes(len);
     }
 
     public void write(ByteBuffer out) throws IOException {
@@ -25,8 +25,10 @@
 
 package es.elixir.bsc.ngs.nova.algo.tree;
 
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * The Huffman Shaped Wavelet Tree implementation.
@@ -38,7 +40,7 @@ import java.nio.ByteBuffer;
 public class HuffmanShapedWaveletTree {
 
     public final HSWTShape shape;
-    private final RankedWTNode[] nodes;
+    private final WaveletTreeNode[] nodes;
 
     /**
      * Creates Huffman Shaped Wavelet Tree from a byte array.
@@ -95,9 +97,9 @@ public class HuffmanShapedWaveletTree {
     private HuffmanShapedWaveletTree(HSWTShape shape, DataSource src, ByteBuffer dst) throws IOException {
         this.shape = shape;
 
-        nodes = new RankedWTNode[256];
+        nodes = new WaveletTreeNode[256];
 
-        int[] lengths = new int[256]; // the size of bit verctors (in bits)
+        long[] lengths = new long[256]; // the size of bit verctors (in bits)
 
         for (int i = 0; i < 256; i++) {
             if (shape.counts[i] > 0) {
@@ -112,11 +114,12 @@ public class HuffmanShapedWaveletTree {
         }
 
         if (dst != null) {
-            mapNodes(dst, lengths, 1);
+            mapNodes(LargeByteBuffer.wrap(dst), lengths, 1);
         } else {
             for (int i = 0; i < 256; i++) {
                 if (lengths[i] > 0) {
-                    nodes[i] = new RankedWTNode(lengths[i]);
+                    nodes[i] = shape.layout == HSWTShape.INTERLEAVED_NODES ?
+                            new InterleavedWTNode(lengths[i]) : new RankedWTNode(lengths[i]);
                 }
             }            
         }
@@ -154,15 +157,15 @@ public class HuffmanShapedWaveletTree {
      * 
      * @throws IOException 
      */
-    private HuffmanShapedWaveletTree(HSWTShape shape, ByteBuffer in) throws IOException {
+    private HuffmanShapedWaveletTree(HSWTShape shape, LargeByteBuffer in) throws IOException {
         this.shape = shape;
         
-        nodes = new RankedWTNode[256];
+        nodes = new WaveletTreeNode[256];
                 
         mapNodes(in, shape.length, 1);
     }
 
-    private void mapNodes(ByteBuffer in, int[] lengths, int code) {
+    private void mapNodes(LargeByteBuffer in, long[] lengths, int code) {
 
         int idx = shape.decode.getSymbol(code);
 
@@ -174,7 +177,7 @@ public class HuffmanShapedWaveletTree {
         code |= Integer.MIN_VALUE >>> level;
         
         if (nodes[idx] == null) {
-            nodes[idx] = new RankedWTNode(in, lengths[idx]);
+            nodes[idx] = node(in, lengths[idx]);
             
             mapNodes(in, lengths, code & (0xBFFFFFFF >> level));
             mapNodes(in, lengths, code | (0x40000000 >> level));
@@ -194,7 +197,7 @@ public class HuffmanShapedWaveletTree {
      * @param length - the size of the node (the root node equals text size)
      * @param code - the node's Huffman code
      */
-    private void mapNodes(ByteBuffer in, long length, int code) {
+    private void mapNodes(LargeByteBuffer in, long length, int code) {
 
         int idx = shape.decode.getSymbol(code);
         final int level = Integer.numberOfLeadingZeros(code) - 1;
@@ -206,7 +209,7 @@ public class HuffmanShapedWaveletTree {
         code |= Integer.MIN_VALUE >>> level;
         
         if (nodes[idx] == null) {
-            nodes[idx] = new RankedWTNode(in, length);
+            nodes[idx] = node(in, length);
             
             final long bits = nodes[idx].count(length - 1);        
 
@@ -215,6 +218,19 @@ public class HuffmanShapedWaveletTree {
         }
     }
     
+    /**
+     * Maps the node of the shape's layout onto the buffer.
+     * 
+     * @param in the buffer that contains (or will contain) the node
+     * @param length the length of the node in bits
+     * 
+     * @return the node
+     */
+    private WaveletTreeNode node(LargeByteBuffer in, long length) {
+        return shape.layout == HSWTShape.INTERLEAVED_NODES ? 
+                new InterleavedWTNode(in, length) : new RankedWTNode(in, length);
+    }
+
     public void write(ByteBuffer out) throws IOException {
         writeNodes(out, 0, 0);
     }
@@ -266,6 +282,167 @@ public class HuffmanShapedWaveletTree {
         return pos;
     }
     
+    /**
+     * Counts symbols up to both positions in one descent of the tree.
+     * The positions of the SA interval bounds share the same Huffman path,
+     * so both ranks are calculated in the same nodes (and the same 512-bit 
+     * blocks when the positions are close).
+     * 
+     * @param symbol
+     * @param pos the positions {i, j} (i &lt;= j) which are replaced by 
+     *        the number of occurrences of the symbol up to them (minus one)
+     *        as returned by {@link #occ(int, long) occ}
+     */
+    public void occPair(int symbol, long[] pos) {
+        if (shape.encode.bit_lengths[symbol] == 0) {
+            pos[0] = pos[1] = -1;
+            return;
+        }
+
+        long i = pos[0];
+        long j = pos[1];
+        final int code = shape.encode.table[symbol];
+        for (int k = 0, n = shape.encode.bit_lengths[symbol]; k < n && j >= 0; k++) {
+            int idx = (code & (0x0000FFFF >>> (16 - k)));
+            idx |= (0x8000 >>> (15 - k));
+            idx = shape.decode.getSymbol(idx);
+
+            final WaveletTreeNode node = nodes[idx];
+            final long bits_i = i >= 0 ? node.count(i) : 0;
+            final long bits_j = node.count(j, i, bits_i);
+            if (((code >>> k) & 0x01) == 0) {
+                if (i >= 0) {
+                    i -= bits_i;
+                }
+                j -= bits_j;
+            } else {
+                if (i >= 0) {
+                    i = bits_i - 1;
+                }
+                j = bits_j - 1;
+            }
+        }
+        pos[0] = i;
+        pos[1] = j;
+    }
+
+    /**
+     * Counts two symbols up to the bounds of two intervals in one descent 
+     * of the tree (e.g. the backward search steps of a string and its
+     * reverse complement). The descents are interleaved level by level, 
+     * so the independent rank loads of both intervals are overlapped.
+     * 
+     * @param symbol0 the first symbol
+     * @param pos0 the positions {i, j} (i &lt;= j) for the first symbol
+     * @param symbol1 the second symbol
+     * @param pos1 the positions {i, j} (i &lt;= j) for the second symbol
+     * 
+     * @see #occPair(int, long[]) occPair
+     */
+    public void occPairs(int symbol0, long[] pos0, int symbol1, long[] pos1) {
+        final int n0 = shape.encode.bit_lengths[symbol0];
+        final int n1 = shape.encode.bit_lengths[symbol1];
+        if (n0 == 0) {
+            pos0[0] = pos0[1] = -1;
+        }
+        if (n1 == 0) {
+            pos1[0] = pos1[1] = -1;
+        }
+
+        final int code0 = shape.encode.table[symbol0];
+        final int code1 = shape.encode.table[symbol1];
+        for (int k = 0, n = Math.max(n0, n1); k < n; k++) {
+            if (k < n0 && pos0[1] >= 0) {
+                count(node(code0, k), (code0 >>> k) & 0x01, pos0);
+            }
+            if (k < n1 && pos1[1] >= 0) {
+                count(node(code1, k), (code1 >>> k) & 0x01, pos1);
+            }
+        }
+    }
+
+    /**
+     * @param code the symbol's code
+     * @param level the level of the node
+     * 
+     * @return the node on the symbol's path
+     */
+    private WaveletTreeNode node(int code, int level) {
+        int idx = (code & (0x0000FFFF >>> (16 - level)));
+        idx |= (0x8000 >>> (15 - level));
+        return nodes[shape.decode.getSymbol(idx)];
+    }
+
+    /**
+     * Moves both positions one level down the symbol's path.
+     * 
+     * @param node the node
+     * @param bit the symbol's code bit in the node
+     * @param pos the positions {i, j} in the node
+     */
+    private static void count(WaveletTreeNode node, int bit, long[] pos) {
+        final long i = pos[0];
+        final long j = pos[1];
+        final long bits_i = i >= 0 ? node.count(i) : 0;
+        final long bits_j = node.count(j, i, bits_i);
+        if (bit == 0) {
+            if (i >= 0) {
+                pos[0] = i - bits_i;
+            }
+            pos[1] = j - bits_j;
+        } else {
+            if (i >= 0) {
+                pos[0] = bits_i - 1;
+            }
+            pos[1] = bits_j - 1;
+        }
+    }
+
+    /**
+     * Counts all the symbols up to the position in one traversal of the tree,
+     * so every node is visited once instead of once per symbol.
+     * 
+     * @param pos the position
+     * @param out the array of 256 elements to put the number of occurrences 
+     *        of every symbol up to the position (minus one) as returned by 
+     *        {@link #occ(int, long) occ}
+     */
+    public void occAll(long pos, long[] out) {
+        Arrays.fill(out, 0, 256, -1);
+        if (pos >= 0) {
+            occAll(shape.decode.getSymbol(1), 0, 0, pos, out);
+        }
+    }
+
+    /**
+     * Recursively counts the symbols in the subtree.
+     * 
+     * @param idx the node
+     * @param code the code of the path to the node
+     * @param depth the depth of the node
+     * @param pos the position in the node
+     * @param out the array to put the number of occurrences
+     */
+    private void occAll(int idx, int code, int depth, long pos, long[] out) {
+        if (depth == shape.encode.bit_lengths[idx]) {
+            out[idx] = pos;
+            return;
+        }
+
+        final long bits = nodes[idx].count(pos);
+        for (int bit = 0; bit < 2; bit++) {
+            final long p = bit == 0 ? pos - bits : bits - 1;
+            if (p >= 0) {
+                final int prefix = code | (bit << depth);
+                final int child = shape.decode.getSymbol(prefix | (0x8000 >>> (14 - depth)));
+                if (shape.encode.bit_lengths[child] > depth &&
+                    (shape.encode.table[child] & (0xFFFF >>> (15 - depth))) == prefix) {
+                    occAll(child, prefix, depth + 1, p, out);
+                }
+            }
+        }
+    }
+
     public long getRank(long pos) {
         int idx = shape.decode.getSymbol(1);
         
@@ -297,6 +474,14 @@ public class HuffmanShapedWaveletTree {
         return idx;
     }
     
+    /**
+     * Gets the symbol at the position together with its rank.
+     * 
+     * @param pos the position in the data
+     * 
+     * @return the rank of the symbol (up to 56 bits) shifted by 8 bits 
+     *         and the symbol in the lowest byte
+     */
     public long getRS(long pos) {
         
         int idx = shape.decode.getSymbol(1);
@@ -310,7 +495,7 @@ public class HuffmanShapedWaveletTree {
             idx = shape.decode.getSymbol(code | (0x8000 >>> (14 - i)));
         }
         
-        return ((long)pos << 32) | idx;
+        return (pos << 8) | idx;
     }
 
     /**
@@ -324,6 +509,21 @@ public class HuffmanShapedWaveletTree {
      * @throws IOException 
      */
     public static HuffmanShapedWaveletTree read(HSWTShape shape, ByteBuffer in) throws IOException {
+        return new HuffmanShapedWaveletTree(shape, LargeByteBuffer.wrap(in));
+    }
+
+    /**
+     * Creates the HSWT from the serialized form kept in the buffer which
+     * may be bigger than 2Gb.
+     * 
+     * @param shape the Huffman's "shape" of the tree
+     * @param in the buffer where the HSWT data (nodes) are stored
+     * 
+     * @return created HSWT
+     * 
+     * @throws IOException 
+     */
+    public static HuffmanShapedWaveletTree read(HSWTShape shape, LargeByteBuffer in) throws IOException {
         return new HuffmanShapedWaveletTree(shape, in);
     }
     
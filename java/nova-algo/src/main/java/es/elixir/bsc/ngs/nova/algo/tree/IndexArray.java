@@ -0,0 +1,57 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2016 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+package es.elixir.bsc.ngs.nova.algo.tree;
+
+/**
+ * The index array which is a permutation of numbers from 0 to n - 1,
+ * where n is the size of the array.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public interface IndexArray {
+    
+    /**
+     * @return the size of the index.
+     */
+    long getSize();
+    
+    /**
+     * Get index stored at the position.
+     * 
+     * @param pos position of the index.
+     * @return the index found at the position.
+     */
+    long get(long pos);
+    
+    /**
+     * Find the position of the index.
+     * 
+     * @param idx the index to search.
+     * @return the position of the index.
+     */
+    long find(long idx);
+}
@@ -0,0 +1,200 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2016 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+package es.elixir.bsc.ngs.nova.algo.tree;
+
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Wavelet Matrix that represents an index array. The index array must be a 
+ * permutation of numbers from 0 to n - 1, where n is the size of the array.
+ * </p>
+ * <p>
+ * Every level keeps one bit of the indexes (from the highest one) in the order
+ * the previous level has stably partitioned them (zeros first), so there are 
+ * no per-node offsets and the level is one plain bit vector.
+ * The number of zeros of the level is recovered from the vector.
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class IndexWaveletMatrix implements IndexArray {
+    
+    private final RankedWTNode[] levels;
+    private final long[] zeros; // the number of zeros in every level
+    
+    /**
+     * Create IndexWaveletMatrix from its serialized form.
+     * 
+     * @param in buffer that contains chained levels' bit vectors.
+     * @param size size of the index.
+     * @param select whether the vectors have the select samples
+     */
+    public IndexWaveletMatrix(ByteBuffer in, long size, boolean select) {
+        this(LargeByteBuffer.wrap(in), size, select);
+    }
+
+    /**
+     * Create IndexWaveletMatrix from its serialized form kept in the buffer 
+     * which may be bigger than 2Gb.
+     * 
+     * @param in buffer that contains chained levels' bit vectors.
+     * @param size size of the index.
+     * @param select whether the vectors have the select samples
+     */
+    public IndexWaveletMatrix(LargeByteBuffer in, long size, boolean select) {
+        levels = new RankedWTNode[levels(size)];
+        zeros = new long[levels.length];
+        
+        for (int l = 0; l < levels.length; l++) {
+            levels[l] = new RankedWTNode(in, size);
+            if (select) {
+                levels[l].readSelect(in);
+            }
+            zeros[l] = size - levels[l].count(size - 1);
+        }
+    }
+
+    /**
+     * Create IndexWaveletMatrix from the index array using ByteBuffer as a storage.
+     * Note that the index array is used as a temporal storage and is destroyed.
+     * 
+     * @param sa the index array
+     * @param dst the buffer to write the matrix into (null to allocate)
+     * @param select whether to build the select samples after every vector
+     * 
+     * @throws IOException 
+     */
+    public IndexWaveletMatrix(int[] sa, ByteBuffer dst, boolean select) throws IOException {
+        levels = new RankedWTNode[levels(sa.length)];
+        zeros = new long[levels.length];
+
+        int[] next = new int[sa.length];
+        for (int l = 0; l < levels.length; l++) {
+            final int shift = levels.length - 1 - l;
+            
+            final RankedWTNode node = dst == null ? new RankedWTNode(sa.length) : new RankedWTNode(dst, sa.length);
+            int z = 0;
+            for (int i = 0, n = sa.length; i < n; i++) {
+                final int bit = (sa[i] >>> shift) & 1;
+                node.put(bit);
+                z += bit ^ 1;
+            }
+            node.flush();
+            if (select) {
+                node.writeSelect(dst);
+            }
+            
+            // stable partition: zeros go first
+            for (int i = 0, j = 0, k = z, n = sa.length; i < n; i++) {
+                if (((sa[i] >>> shift) & 1) == 0) {
+                    next[j++] = sa[i];
+                } else {
+                    next[k++] = sa[i];
+                }
+            }
+
+            final int[] tmp = sa;
+            sa = next;
+            next = tmp;
+            
+            levels[l] = node;
+            zeros[l] = z;
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return levels[0].size;
+    }
+
+    /**
+     * Get index stored at the position.
+     * 
+     * @param pos position of the index.
+     * @return the index found at the position {@code pos}.
+     */
+    @Override
+    public long get(long pos) {
+        long code = 0;
+        for (int l = 0; l < levels.length; l++) {
+            final RankedWTNode node = levels[l];
+            final int bit = node.get(pos);
+            final long ones = node.count(pos);
+            pos = bit == 0 ? pos - ones : zeros[l] + ones - 1;
+            code = code << 1 | bit;
+        }
+        return code;
+    }
+
+    /**
+     * Find the position of the index.
+     * Goes down to find the position of the index in the last level
+     * and then back up with the select operations.
+     * 
+     * @param idx the index to search.
+     * @return the position of the index.
+     */
+    @Override
+    public long find(long idx) {
+        long pos = 0;
+        for (int l = 0; l < levels.length; l++) {
+            final long ones = pos > 0 ? levels[l].count(pos - 1) : 0;
+            pos = ((idx >>> (levels.length - 1 - l)) & 1) == 0 ? pos - ones : zeros[l] + ones;
+        }
+        
+        for (int l = levels.length - 1; l >= 0; l--) {
+            pos = ((idx >>> (levels.length - 1 - l)) & 1) == 0 ? levels[l].findZero(pos + 1) :
+                                                                  levels[l].findOne(pos - zeros[l] + 1);
+        }
+        return pos;
+    }
+    
+    /**
+     * @param len the size of the index array
+     * 
+     * @return the number of levels (bits to store indexes from 0 to len - 1)
+     */
+    private static int levels(long len) {
+        return Math.max(1, 64 - Long.numberOfLeadingZeros(len - 1));
+    }
+
+    /**
+     * Calculates the space in bytes needed to store <i>len</i> indexes.
+     * 
+     * @param len the size of index array (number of indexes).
+     * @param select whether every vector has the select samples
+     * 
+     * @return the size in bytes needed to store the index array of length <i>len</i>.
+     */
+    public static long size(long len, boolean select) {
+        final long bytes = select ? RankedWTNode.bytes(len) + RankedWTNode.selectBytes(len) : RankedWTNode.bytes(len);
+        return bytes * levels(len);
+    }
+}
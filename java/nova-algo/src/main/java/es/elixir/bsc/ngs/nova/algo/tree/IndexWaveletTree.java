@@ -25,6 +25,7 @@
 
 package es.elixir.bsc.ngs.nova.algo.tree;
 
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -38,7 +39,7 @@ import java.nio.ByteBuffer;
  * @author Dmitry Repchevsky
  */
 
-public class IndexWaveletTree {
+public class IndexWaveletTree implements IndexArray {
     
     private final RankedWTNode[] nodes;
     
@@ -65,11 +66,38 @@ public class IndexWaveletTree {
      * @param size size of the index.
      */
     public IndexWaveletTree(ByteBuffer in, long size) {
+        this(in, size, false);
+    }
+
+    /**
+     * Create IndexWaveletTree from its serialized form where every binary
+     * vector may be followed by its sampled select structure.
+     * 
+     * @param in buffer that contains chained binary vectors.
+     * @param size size of the index.
+     * @param select whether the vectors have the select samples
+     */
+    public IndexWaveletTree(ByteBuffer in, long size, boolean select) {
+        this(LargeByteBuffer.wrap(in), size, select);
+    }
+
+    /**
+     * Create IndexWaveletTree from its serialized form kept in the buffer 
+     * which may be bigger than 2Gb.
+     * 
+     * @param in buffer that contains chained binary vectors.
+     * @param size size of the index.
+     * @param select whether the vectors have the select samples
+     */
+    public IndexWaveletTree(LargeByteBuffer in, long size, boolean select) {
         int hibit = 64 - Long.numberOfLeadingZeros(size);
         nodes = new RankedWTNode[hibit];
         
         while (hibit-- > 0) {
             nodes[hibit] = new RankedWTNode(in, size);
+            if (select) {
+                nodes[hibit].readSelect(in);
+            }
         }
     }
     
@@ -81,6 +109,18 @@ public class IndexWaveletTree {
      * @throws IOException 
      */
     public IndexWaveletTree(int[] sa, ByteBuffer dst) throws IOException {
+        this(sa, dst, false);
+    }
+
+    /**
+     * Create IndexWaveletTree from the index array using ByteBuffer as a storage
+     * 
+     * @param sa
+     * @param dst
+     * @param select whether to build the select samples after every vector
+     * @throws IOException 
+     */
+    public IndexWaveletTree(int[] sa, ByteBuffer dst, boolean select) throws IOException {
         int[] _ssa = new int[sa.length];
         int hibit = 32 - Integer.numberOfLeadingZeros(sa.length);
         nodes = new RankedWTNode[hibit];//(ssa.length * hibit);
@@ -105,6 +145,9 @@ public class IndexWaveletTree {
             }
 
             nodes[hibit].flush();
+            if (select) {
+                nodes[hibit].writeSelect(dst);
+            }
             int[] tmp = sa;
             sa = _ssa;
             _ssa = tmp;
@@ -115,6 +158,7 @@ public class IndexWaveletTree {
      * Get the size of the index.
      * @return the size of the index.
      */
+    @Override
     public long getSize() {
         return nodes[0].size;
     }
@@ -124,6 +168,7 @@ public class IndexWaveletTree {
      * @param pos position of the index.
      * @return the index found at the position {@code pos}.
      */
+    @Override
     public long get(long pos) {        
         long code = 0;
         
@@ -149,6 +194,7 @@ public class IndexWaveletTree {
      * @param idx the index to search.
      * @return the position of the index.
      */
+    @Override
     public long find(long idx) {
         long pos = 0;
         
@@ -173,4 +219,17 @@ public class IndexWaveletTree {
     public static long size(long len) {
         return RankedWTNode.bytes(len) * (64L - Long.numberOfLeadingZeros(len));
     }
+
+    /**
+     * Calculates the space in bytes needed to store <i>len</i> indexes.
+     * 
+     * @param len the size of index array (number of indexes).
+     * @param select whether every vector has the select samples
+     * 
+     * @return the size in bytes needed to store the index array of length <i>len</i>.
+     */
+    public static long size(long len, boolean select) {
+        final long bytes = select ? RankedWTNode.bytes(len) + RankedWTNode.selectBytes(len) : RankedWTNode.bytes(len);
+        return bytes * (64L - Long.numberOfLeadingZeros(len));
+    }
 }
@@ -0,0 +1,193 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2016 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+package es.elixir.bsc.ngs.nova.algo.tree;
+
+import es.elixir.bsc.ngs.nova.io.AbstractBitStream;
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * The ranked bit vector where the counter is interleaved with the bits
+ * it counts, so the rank reads one 64-byte line of the node.
+ * </p>
+ * <p>
+ * Every line is the number of 'one' bits before the line (8 bytes) 
+ * followed by 448 bits (7 longs) of the vector. The last line may be partial.
+ * The lines are counted from the node's start, which is not aligned in the
+ * file (nor in the memory), so a line spans at most two cache lines.
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class InterleavedWTNode extends AbstractBitStream implements WaveletTreeNode {
+
+    private long ones; // 'one' bits written so far
+
+    public InterleavedWTNode(ByteBuffer buf, long size) {
+        this(LargeByteBuffer.wrap(buf), size);
+    }
+
+    public InterleavedWTNode(LargeByteBuffer buf, long size) {
+        super(buf.slice(), size);
+        super.buf.limit(bytes(size));
+        buf.position(buf.position() + super.buf.limit());
+    }
+
+    /**
+     * Creates the new Wavelet Tree Node.
+     * 
+     * @param size - the size of the node in bits;
+     */
+    public InterleavedWTNode(long size) {
+        super(LargeByteBuffer.allocate(bytes(size)), size);
+    }
+
+    /**
+     * Calculate the real size of the node in bytes
+     * 
+     * @param len the length of the bit vector in bits
+     * 
+     * @return the size of the ranked bit vector structure in bytes
+     */
+    public final static long bytes(long len) {
+        return ((len + 447) / 448) * 8 + ((len + 7) >>> 3);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Reads a bit at the given position.
+     * 
+     * @param idx
+     * @return either '0' or '1'
+     */
+    @Override
+    public byte get(long idx) {
+        final long w = idx >>> 6;
+        final long pos = ((w + w / 7 + 1) << 3) + ((idx >>> 3) & 7);
+        return (byte)((buf.get(pos) >>> (idx & 7)) & 0x01);
+    }
+
+    @Override
+    public void align() throws IOException {
+        bits_left &= 0b11111000;
+    }
+
+    /**
+     * Count the number of 'one' bits up to the position (rank).
+     * 
+     * @param idx
+     * @return 
+     */
+    @Override
+    public long count(long idx) {
+        final long w = idx >>> 6;
+        final long line = w / 7;
+
+        long pos = line << 6;
+        long count = buf.getLong(pos);
+
+        for (final long n = (pos += 8) + ((w - line * 7) << 3); pos < n; pos += 8) {
+            count += Long.bitCount(buf.getLong(pos));
+        }
+
+        return count + Long.bitCount(getLong(pos) << (63 - (idx & 63)));
+    }
+
+    /**
+     * Count the number of 'one' bits up to the position when the count up to 
+     * some preceding position is known. When both positions are in the same
+     * line, only the words between them are read.
+     * 
+     * @param idx the position to count up to
+     * @param prev the preceding position (prev &lt;= idx)
+     * @param prev_count the number of 'one' bits up to the preceding position
+     * 
+     * @return the number of 'one' bits up to the position
+     */
+    @Override
+    public long count(long idx, long prev, long prev_count) {
+        final long last = idx >>> 6;
+        final long line = last / 7;
+
+        long w = prev >>> 6;
+        if (prev < 0 || w < line * 7) {
+            return count(idx);
+        }
+
+        final long off = (line + 1) << 3; // the line's words are shifted by the counters
+
+        final long word = getLong((w << 3) + off) & (-2L << (prev & 63)); // bits after prev
+        if (w == last) {
+            return prev_count + Long.bitCount(word << (63 - (idx & 63)));
+        }
+
+        long count = prev_count + Long.bitCount(word);
+        while (++w < last) {
+            count += Long.bitCount(buf.getLong((w << 3) + off));
+        }
+        return count + Long.bitCount(getLong((last << 3) + off) << (63 - (idx & 63)));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (bits_left > 0 && (buf.position() & 63) == 0) {
+            buf.putLong(ones); // the last line starts with the partial word
+        }
+        super.flush();
+    }
+
+    @Override
+    protected long getLong() {
+        if ((buf.position() & 63) == 0) {
+            buf.position(buf.position() + 8); // skip the counter
+        }
+        return super.getLong();
+    }
+
+    @Override
+    protected long getLong(long index) {
+        if ((index & 63) == 0) {
+            index += 8; // skip the counter
+        }
+        return super.getLong(index);
+    }
+
+    @Override
+    protected void putLong(long value) {
+        if ((buf.position() & 63) == 0) {
+            buf.putLong(ones);
+        }
+        ones += Long.bitCount(value);
+        super.putLong(value);
+    }
+}
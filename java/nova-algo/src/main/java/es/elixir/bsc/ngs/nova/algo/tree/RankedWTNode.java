@@ -26,6 +26,7 @@
 package es.elixir.bsc.ngs.nova.algo.tree;
 
 import es.elixir.bsc.ngs.nova.io.AbstractBitStream;
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -35,7 +36,20 @@ import java.nio.ByteBuffer;
 
 public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
 
+    /**
+     * Every 4096th 'one' (and 'zero') bit position is sampled for the select.
+     */
+    public final static int SELECT_SAMPLING_FACTOR = 12;
+
+    private LargeByteBuffer select; // 512-bit block numbers of the sampled bits (may be null)
+    private int select_zeros; // the first 'zero' sample in the select buffer
+    private long ones; // the number of 'one' bits in the node (when select is present)
+
     public RankedWTNode(ByteBuffer buf, long size) {
+        this(LargeByteBuffer.wrap(buf), size);
+    }
+
+    public RankedWTNode(LargeByteBuffer buf, long size) {
         super(buf.slice(), size);
         super.buf.limit(bytes(size));
         buf.position(buf.position() + super.buf.limit());
@@ -47,7 +61,7 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
      * @param size - the size of the node in bits;
      */
     public RankedWTNode(long size) {
-        super(ByteBuffer.allocate(bytes(size)), size);
+        super(LargeByteBuffer.allocate(bytes(size)), size);
     }
 
     /**
@@ -57,13 +71,9 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
      * 
      * @return the size of the ranked bit vector structure in bytes
      */
-    public final static int bytes(long len) {
+    public final static long bytes(long len) {
         // every 'long' counter replaces the last 'short' counter so 8 - 2 = 6
-        final long size = ((len - 1) >>> 16) * 6 + ((len - 1) >>> 9) * 2 + ((len + 7) >>> 3);
-        if (size > Integer.MAX_VALUE) {
-            throw new IllegalArgumentException("The ranked bit verctor implementation supports ~15G bits");
-        }
-        return (int)size;
+        return ((len - 1) >>> 16) * 6 + ((len - 1) >>> 9) * 2 + ((len + 7) >>> 3);
     }
     
     @Override
@@ -80,7 +90,7 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
     @Override
     public byte get(long idx) {
         final long pos = (idx >>> 3) + (idx >>> 9) * 2 + (idx >>> 16) * 6;
-        return (byte)((buf.get((int)pos) >>> (idx & 7)) & 0x01);
+        return (byte)((buf.get(pos) >>> (idx & 7)) & 0x01);
     }
 
     @Override
@@ -106,21 +116,136 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
         long lpos = 0;
         if (nlidx > 0) {
             lpos = nlidx * 8454; // large index segment start position (nlidx * (8192 + 8 + 127 * 2))
-            count = buf.getLong((int)(lpos - 8));
+            count = buf.getLong(lpos - 8);
         }
         
         long bpos = lpos + spos;
         if (nsidx > 0) {
-            count += buf.getShort((int)(bpos - 2)) & 0xFFFF;
+            count += buf.getShort(bpos - 2) & 0xFFFF;
         }
         
-        for (int n = (int)(bpos + ((idx >>> 3) & 0b111000)); bpos < n; bpos += 8) {
+        for (long n = bpos + ((idx >>> 3) & 0b111000); bpos < n; bpos += 8) {
             count += Long.bitCount(super.getLong(bpos));
         }
 
         return count + Long.bitCount(super.getLong(bpos) << (63 - (idx & 63)));
     }
 
+    /**
+     * Count the number of 'one' bits up to the position when the count up to 
+     * some preceding position is known. When both positions are in the same
+     * 512-bit block, only the words between them are read.
+     * 
+     * @param idx the position to count up to
+     * @param prev the preceding position (prev &lt;= idx)
+     * @param prev_count the number of 'one' bits up to the preceding position
+     * 
+     * @return the number of 'one' bits up to the position
+     */
+    @Override
+    public long count(long idx, long prev, long prev_count) {
+        if (prev < 0 || (prev >>> 9) != (idx >>> 9)) {
+            return count(idx);
+        }
+
+        final long bpos = (idx >>> 16) * 8454 + ((idx >>> 9) & 0b1111111) * 66; // the block start
+        
+        long w = prev >>> 6;
+        final long last = idx >>> 6;
+        
+        final long word = super.getLong(bpos + ((w & 7) << 3)) & (-2L << (prev & 63)); // bits after prev
+        if (w == last) {
+            return prev_count + Long.bitCount(word << (63 - (idx & 63)));
+        }
+
+        long count = prev_count + Long.bitCount(word);
+        while (++w < last) {
+            count += Long.bitCount(super.getLong(bpos + ((w & 7) << 3)));
+        }
+        return count + Long.bitCount(super.getLong(bpos + ((last & 7) << 3)) << (63 - (idx & 63)));
+    }
+
+    /**
+     * Calculate the size of the sampled select structure in bytes.
+     * There are at most (len &gt;&gt;&gt; 12) + 2 samples of 'one' and 'zero' bits.
+     * 
+     * @param len the length of the bit vector in bits
+     * 
+     * @return the size of the select samples in bytes
+     */
+    public final static long selectBytes(long len) {
+        return ((len >>> SELECT_SAMPLING_FACTOR) + 2) * 4;
+    }
+
+    /**
+     * Builds the sampled select structure for the written (flushed) node.
+     * The samples are calculated from the rank counters only.
+     * 
+     * @param out the buffer to write the samples into (null to allocate)
+     */
+    public void writeSelect(ByteBuffer out) {
+        final LargeByteBuffer samples = out == null ? 
+                LargeByteBuffer.allocate(selectBytes(size)) : LargeByteBuffer.wrap(out).slice();
+        samples.limit(selectBytes(size));
+
+        final long total = size > 0 ? count(size - 1) : 0;
+        final long blocks = (size + 511) >>> 9;
+
+        final int zeros = (int)((total + (1 << SELECT_SAMPLING_FACTOR) - 1) >>> SELECT_SAMPLING_FACTOR);
+        
+        long one = 1;  // the next 'one' bit to sample
+        long zero = 1; // the next 'zero' bit to sample
+        for (long b = 0; b < blocks; b++) {
+            final long rank = b + 1 < blocks ? rank(b + 1) : total;
+            final long zrank = b + 1 < blocks ? ((b + 1) << 9) - rank : size - total;
+            for (; one <= rank; one += 1 << SELECT_SAMPLING_FACTOR) {
+                samples.putInt(((one - 1) >>> SELECT_SAMPLING_FACTOR) << 2, (int)b);
+            }
+            for (; zero <= zrank; zero += 1 << SELECT_SAMPLING_FACTOR) {
+                samples.putInt((zeros + ((zero - 1) >>> SELECT_SAMPLING_FACTOR)) << 2, (int)b);
+            }
+        }
+
+        if (out != null) {
+            out.position(out.position() + (int)samples.limit());
+        }
+
+        select = samples;
+        select_zeros = zeros;
+        ones = total;
+    }
+
+    /**
+     * Maps the sampled select structure written after the node.
+     * 
+     * @param in the buffer that contains the samples
+     */
+    public void readSelect(ByteBuffer in) {
+        readSelect(LargeByteBuffer.wrap(in));
+    }
+
+    /**
+     * Maps the sampled select structure written after the node.
+     * 
+     * @param in the buffer that contains the samples
+     */
+    public void readSelect(LargeByteBuffer in) {
+        final LargeByteBuffer samples = in.slice();
+        samples.limit(selectBytes(size));
+        in.position(in.position() + samples.limit());
+
+        ones = size > 0 ? count(size - 1) : 0;
+        select_zeros = (int)((ones + (1 << SELECT_SAMPLING_FACTOR) - 1) >>> SELECT_SAMPLING_FACTOR);
+        select = samples;
+    }
+
+    /**
+     * @return whether the node has the sampled select structure
+     */
+    public boolean hasSelect() {
+        return select != null;
+    }
+
     /**
      * Find the position of the n'th zero bit in the node.
      * 
@@ -142,7 +267,14 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
         return findOne(n, n - 1, size - 1);
     }
 
-    protected long findZero(long n, long lo, long hi) {        
+    /**
+     * Find the position of the n'th zero bit within the range.
+     * When the node has the select samples the range is not used.
+     */
+    protected long findZero(long n, long lo, long hi) {
+        if (select != null) {
+            return selectZero(n);
+        }
         while (lo < hi) {
             final long clo = lo - count(lo) + 1;
             final long chi = hi - count(hi) + 1;
@@ -168,7 +300,14 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
         return -1;
     }
 
+    /**
+     * Find the position of the n'th one bit within the range.
+     * When the node has the select samples the range is not used.
+     */
     protected long findOne(long n, long lo, long hi) {
+        if (select != null) {
+            return selectOne(n);
+        }
         while (lo < hi) {
             final long clo = count(lo);
             final long chi = count(hi);
@@ -192,12 +331,113 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
         }
         return -1;
     }
+
+    /**
+     * Find the n'th one bit starting from the sampled block.
+     */
+    private long selectOne(long n) {
+        if (n <= 0 || n > ones) {
+            return -1;
+        }
+
+        final long k = (n - 1) >>> SELECT_SAMPLING_FACTOR;
+        long lo = select.getInt(k << 2);
+        long hi = k + 1 < select_zeros ? select.getInt((k + 1) << 2) : (size - 1) >>> 9;
+
+        // the last block which has less than n 'one' bits before it
+        while (lo < hi) {
+            final long mid = (lo + hi + 1) >>> 1;
+            if (rank(mid) < n) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        long count = rank(lo);
+        for (long bpos = block(lo), pos = lo << 9;; bpos += 8, pos += 64) {
+            long word = super.getLong(bpos);
+            final int bits = Long.bitCount(word);
+            if (count + bits >= n) {
+                for (long i = n - count; i > 1; i--) {
+                    word &= word - 1;
+                }
+                return pos + Long.numberOfTrailingZeros(word);
+            }
+            count += bits;
+        }
+    }
+
+    /**
+     * Find the n'th zero bit starting from the sampled block.
+     */
+    private long selectZero(long n) {
+        if (n <= 0 || n > size - ones) {
+            return -1;
+        }
+
+        final long k = (n - 1) >>> SELECT_SAMPLING_FACTOR;
+        long lo = select.getInt((select_zeros + k) << 2);
+        long hi = (k + 1) << SELECT_SAMPLING_FACTOR < size - ones ? 
+                  select.getInt((select_zeros + k + 1) << 2) : (size - 1) >>> 9;
+
+        // the last block which has less than n 'zero' bits before it
+        while (lo < hi) {
+            final long mid = (lo + hi + 1) >>> 1;
+            if ((mid << 9) - rank(mid) < n) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        long count = (lo << 9) - rank(lo);
+        for (long bpos = block(lo), pos = lo << 9;; bpos += 8, pos += 64) {
+            long word = ~super.getLong(bpos);
+            final int bits = Long.bitCount(word);
+            if (count + bits >= n) {
+                for (long i = n - count; i > 1; i--) {
+                    word &= word - 1;
+                }
+                return pos + Long.numberOfTrailingZeros(word);
+            }
+            count += bits;
+        }
+    }
+
+    /**
+     * @param b the 512-bit block number
+     * 
+     * @return the byte position of the block's bits
+     */
+    private static long block(long b) {
+        return (b >>> 7) * 8454 + (b & 0b1111111) * 66;
+    }
+
+    /**
+     * Count the number of 'one' bits before the 512-bit block 
+     * (reads only the rank counters).
+     * 
+     * @param b the block number
+     * 
+     * @return the number of 'one' bits before the block
+     */
+    private long rank(long b) {
+        final long lpos = (b >>> 7) * 8454;
+        final long spos = lpos + (b & 0b1111111) * 66;
+
+        long count = lpos > 0 ? buf.getLong(lpos - 8) : 0;
+        if (spos > lpos) {
+            count += buf.getShort(spos - 2) & 0xFFFF;
+        }
+        return count;
+    }
             
     @Override
     protected long getLong() {
 
-        final int pos = buf.position();
-        int nlong = pos - ((pos / 8454) * 6);
+        final long pos = buf.position();
+        long nlong = pos - ((pos / 8454) * 6);
         nlong -= ((nlong / 66) << 1);
 
         if ((nlong & 0x00001FFF) == 0 && nlong > 0) {
@@ -227,7 +467,7 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
     @Override
     protected void putLong(long value) {
 
-        final int pos = buf.position();
+        final long pos = buf.position();
         long nlong = pos - ((pos / 8454) * 6);
         nlong -= ((nlong / 66) << 1);
 
@@ -235,7 +475,7 @@ public class RankedWTNode extends AbstractBitStream implements WaveletTreeNode {
             buf.putLong(count((nlong << 3) - 1)); // pos * 8 bits
         } else if ((nlong & 0b111111) == 0 && nlong > 0) {            
             int count = (nlong & 0x1FFF) > 64 ? buf.getShort(pos - 66) & 0xFFFF : 0;
-            for (int i = pos - 64; i < pos; i +=8) {
+            for (long i = pos - 64; i < pos; i +=8) {
                 count += Long.bitCount(buf.getLong(i));
             }
             buf.putShort((short) count);
@@ -39,4 +39,18 @@ public interface WaveletTreeNode {
     void flush() throws IOException;
     long size();
     long count(long idx);
+    
+    /**
+     * Count the number of 'one' bits up to the position when the count up to 
+     * some preceding position is known.
+     * 
+     * @param idx the position to count up to
+     * @param prev the preceding position (prev &lt;= idx)
+     * @param prev_count the number of 'one' bits up to the preceding position
+     * 
+     * @return the number of 'one' bits up to the position
+     */
+    default long count(long idx, long prev, long prev_count) {
+        return count(idx);
+    }
 }
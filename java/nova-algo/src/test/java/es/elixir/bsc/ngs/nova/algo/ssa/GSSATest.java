@@ -0,0 +1,1024 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2015 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+package es.elixir.bsc.ngs.nova.algo.ssa;
+
+import es.elixir.bsc.ngs.nova.algo.string.ExternalSuffixArray;
+import es.elixir.bsc.ngs.nova.algo.string.SAIS;
+import es.elixir.bsc.ngs.nova.algo.string.SampledBWT;
+import es.elixir.bsc.ngs.nova.algo.tree.HSWTShape;
+import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree;
+import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree.DataSource;
+import es.elixir.bsc.ngs.nova.algo.tree.RankedWTNode;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Dmitry Repchevsky
+ */
+
+public class GSSATest {
+
+    private final static String[] STRINGS = {"ACGTTGCAACGTACGTNNACGTTTGACCA",
+                                             "TTGACGTACGTAAACGTACG",
+                                             "GGGGACGTACGTCCCCACGTAC"};
+
+    @Test
+    public void test_count() throws IOException {
+        final GSSA gssa = build(STRINGS, 4);
+
+        for (String pattern : new String[] {"ACGT", "A", "TTGAC", "CCCC", "NNA", "GATTACA"}) {
+            final long[] count = gssa.count(pattern.getBytes());
+            long total = 0;
+            for (int i = 0; i < STRINGS.length; i++) {
+                final int expected = find(STRINGS[i], pattern).size();
+                Assert.assertEquals(expected, count == null ? 0 : count[i]);
+                total += expected;
+            }
+            Assert.assertEquals(total, gssa.countAll(pattern.getBytes()));
+        }
+        
+        // the frequent pattern is counted by the document array (then all the next ones)
+        final String[] strings = new String[5];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = new String(new char[100 + i * 50]).replace('\0', 'A') + "CACGTAACG";
+        }
+        final GSSA frequent = build(strings, 4);
+        for (String pattern : new String[] {"A", "AAC", "CG", "GATTACA"}) {
+            final long[] count = frequent.count(pattern.getBytes());
+            for (int i = 0; i < strings.length; i++) {
+                Assert.assertEquals(find(strings[i], pattern).size(), count == null ? 0 : count[i]);
+            }
+        }
+    }
+
+    @Test
+    public void test_random() throws IOException {
+        final Random random = new Random(7);
+        final String[] strings = new String[16];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 64 + random.nextInt(512));
+        }
+
+        final GSSA gssa = build(strings, 8);
+        for (int i = 0; i < strings.length; i++) {
+            Assert.assertEquals(strings[i].length(), gssa.getLength(i));
+
+            final int from = random.nextInt(strings[i].length());
+            final ByteBuffer buf = ByteBuffer.allocate(strings[i].length() - from);
+            gssa.extract(buf, i, from);
+            Assert.assertEquals(strings[i].substring(from), new String(buf.array()));
+        }
+
+        for (int n = 0; n < 256; n++) {
+            final String pattern = random(random, 1 + random.nextInt(8));
+            final long[][] res = gssa.find(pattern.getBytes());
+            for (int i = 0; i < strings.length; i++) {
+                final List<Long> expected = find(strings[i], pattern);
+                Assert.assertEquals(expected.size(), res == null || res[i] == null ? 0 : res[i].length);
+                for (int j = 0; j < expected.size(); j++) {
+                    Assert.assertEquals(expected.get(j).longValue(), res[i][j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_batch() throws IOException {
+        final Random random = new Random(11);
+        final String[] strings = new String[8];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 256 + random.nextInt(1024));
+        }
+        final GSSA gssa = build(strings, 16);
+
+        final List<byte[]> patterns = new ArrayList<>();
+        for (int n = 0; n < 3000; n++) {
+            final String suffix = random(random, random.nextInt(4));
+            patterns.add((random(random, 1 + random.nextInt(6)) + suffix).getBytes());
+        }
+
+        final long[][][] results = new long[patterns.size()][][];
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            new GSSABatchSearch(gssa).find(patterns, executor, (idx, res) -> results[idx] = res);
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0, n = patterns.size(); i < n; i++) {
+            Assert.assertArrayEquals(gssa.find(patterns.get(i)), results[i]);
+        }
+    }
+
+    @Test
+    public void test_approximate() throws IOException {
+        final Random random = new Random(13);
+        final String[] strings = new String[6];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 128 + random.nextInt(256));
+        }
+        final GSSA gssa = build(strings, 8);
+        final GSSAApproximateSearch search = new GSSAApproximateSearch(gssa);
+
+        for (int n = 0; n < 200; n++) {
+            final int k = random.nextInt(3);
+            final boolean edits = random.nextBoolean();
+            final String pattern = random(random, 1 + random.nextInt(10));
+            final long[][] res = search.find(pattern.getBytes(), k, edits);
+            for (int i = 0; i < strings.length; i++) {
+                final List<Long> expected = find(strings[i], pattern, k, edits);
+                Assert.assertEquals(expected.size(), res == null || res[i] == null ? 0 : res[i].length);
+                for (int j = 0; j < expected.size(); j++) {
+                    Assert.assertEquals(expected.get(j).longValue(), res[i][j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_bidirectional() throws IOException {
+        final Random random = new Random(17);
+        final String[] strings = new String[8];
+        final String[] reversed = new String[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 64 + random.nextInt(256));
+            reversed[i] = new StringBuilder(strings[i]).reverse().toString();
+        }
+        final GSSA gssa = build(strings, 8);
+        final GSSA rgssa = build(reversed, 8);
+        final BidirectionalGSSA bgssa = new BidirectionalGSSA(gssa, rgssa.tree);
+        rgssa.index();
+
+        for (int n = 0; n < 256; n++) {
+            // grow the pattern from the random position in both directions
+            final String str = random.nextInt(4) == 0 ? random(random, 16) : strings[random.nextInt(strings.length)];
+            int from = random.nextInt(str.length());
+            int to = from;
+            final long[] interval = bgssa.interval();
+            while (to - from < 12 && (from > 0 || to < str.length())) {
+                final boolean left = to == str.length() || from > 0 && random.nextBoolean();
+                final boolean found = left ? bgssa.extendLeft(str.charAt(--from), interval) :
+                                             bgssa.extendRight(str.charAt(to++), interval);
+
+                final String pattern = str.substring(from, to);
+                final long[] forward = gssa.interval(pattern.getBytes());
+                Assert.assertEquals(forward != null, found);
+                if (!found) {
+                    break;
+                }
+                final long[] backward = rgssa.interval(new StringBuilder(pattern).reverse().toString().getBytes());
+                Assert.assertEquals(forward[0], interval[0]);
+                Assert.assertEquals(backward[0], interval[1]);
+                Assert.assertEquals(forward[1] - forward[0] + 1, interval[2]);
+                Assert.assertArrayEquals(gssa.find(pattern.getBytes()), bgssa.find(interval));
+            }
+        }
+    }
+
+    @Test
+    public void test_locate() throws IOException {
+        final Random random = new Random(19);
+        final String[] strings = new String[12];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 2048 + random.nextInt(4096));
+        }
+        final GSSA gssa = build(strings, 16);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final GSSALocator locator = new GSSALocator(gssa, pool);
+            for (String pattern : new String[] {"A", "CG", "TTA", "GATTACA"}) {
+                final long[][] res = gssa.find(pattern.getBytes());
+                for (int i = 0; i < strings.length; i++) {
+                    final List<Long> expected = find(strings[i], pattern);
+                    Assert.assertEquals(expected.size(), res[i] == null ? 0 : res[i].length);
+                    for (int j = 0; j < expected.size(); j++) {
+                        Assert.assertEquals(expected.get(j).longValue(), res[i][j]);
+                    }
+                }
+
+                final List<Set<Long>> streamed = new ArrayList<>();
+                for (String str : strings) {
+                    streamed.add(ConcurrentHashMap.newKeySet());
+                }
+                final long total = locator.locate(pattern.getBytes(), (nstr, pos) -> streamed.get(nstr).add(pos));
+
+                final List<Set<Long>> iterated = new ArrayList<>();
+                for (String str : strings) {
+                    iterated.add(new TreeSet<>());
+                }
+                final GSSALocator.Hits hits = locator.iterator(pattern.getBytes());
+                Assert.assertEquals(total, hits.remaining());
+                while (hits.hasNext()) {
+                    final long pos = hits.nextLong();
+                    iterated.get(hits.getString()).add(pos);
+                }
+
+                for (int i = 0; i < strings.length; i++) {
+                    final Set<Long> expected = new TreeSet<>(find(strings[i], pattern));
+                    Assert.assertEquals(expected, streamed.get(i));
+                    Assert.assertEquals(expected, iterated.get(i));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void test_kmers() throws IOException {
+        final Random random = new Random(23);
+        final String[] strings = new String[4];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 512 + random.nextInt(512));
+        }
+        strings[0] += "NNACGTNN";
+
+        final GSSA gssa = build(strings, 8);
+        final GSSA kmers = build(strings, 8);
+        kmers.setKmerLength(5);
+
+        for (int n = 0; n < 512; n++) {
+            final String pattern = random(random, 1 + random.nextInt(10)) + (n % 8 == 0 ? "N" : "");
+            Assert.assertArrayEquals(gssa.count(pattern.getBytes()), kmers.count(pattern.getBytes()));
+            Assert.assertArrayEquals(gssa.find(pattern.getBytes()), kmers.find(pattern.getBytes()));
+        }
+    }
+
+    @Test
+    public void test_precomputed() throws IOException {
+        final Random random = new Random(29);
+        final String[] strings = new String[32];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 1 + random.nextInt(64));
+        }
+        final GSSA gssa = build(strings, 4);
+
+        // buckets' positions and terminators taken directly from the text
+        final long[] c = new long[256];
+        final long[] e = new long[strings.length];
+        long pos = -1;
+        for (int i = 0; i < strings.length; i++) {
+            for (char ch : strings[i].toCharArray()) {
+                c[ch + 1]++;
+            }
+            c[1]++;
+            e[i] = pos += strings[i].length() + 1;
+        }
+        for (int i = 1; i < 256; i++) {
+            c[i] += c[i - 1];
+        }
+
+        final GSSA precomputed = build(strings, 4, c, e);
+        for (int n = 0; n < 128; n++) {
+            final String pattern = random(random, 1 + random.nextInt(4));
+            Assert.assertArrayEquals(gssa.find(pattern.getBytes()), precomputed.find(pattern.getBytes()));
+        }
+        for (int i = 0; i < strings.length; i++) {
+            Assert.assertEquals(strings[i].length(), precomputed.getLength(i));
+        }
+    }
+
+    @Test
+    public void test_inverse() throws IOException {
+        final Random random = new Random(31);
+        final String[] strings = new String[8];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 100 + random.nextInt(1000));
+        }
+        final GSSA gssa = build(strings, 16, null, null, true);
+
+        for (int n = 0; n < 256; n++) {
+            final int i = random.nextInt(strings.length);
+            final int from = random.nextInt(strings[i].length());
+            final int len = Math.min(1 + random.nextInt(150), strings[i].length() - from);
+            final ByteBuffer buf = ByteBuffer.allocate(len);
+            gssa.extract(buf, i, from);
+            Assert.assertEquals(strings[i].substring(from, from + len), new String(buf.array()));
+        }
+
+        for (int n = 0; n < 64; n++) {
+            final String pattern = random(random, 1 + random.nextInt(6));
+            final long[][] res = gssa.find(pattern.getBytes());
+            for (int i = 0; i < strings.length; i++) {
+                Assert.assertEquals(find(strings[i], pattern).size(), res == null || res[i] == null ? 0 : res[i].length);
+            }
+        }
+    }
+
+    @Test
+    public void test_concurrent() throws Exception {
+        final Random random = new Random(41);
+        final String[] strings = new String[8];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 256 + random.nextInt(512));
+        }
+        final List<String> patterns = new ArrayList<>();
+        for (int n = 0; n < 256; n++) {
+            patterns.add(random(random, 1 + random.nextInt(6)));
+        }
+
+        // the first queries race for the lazy initialization
+        final GSSA gssa = build(strings, 8);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<long[][][]>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    final long[][][] res = new long[patterns.size()][][];
+                    for (int n = 0; n < res.length; n++) {
+                        res[n] = gssa.find(patterns.get(n).getBytes());
+                    }
+                    return res;
+                }));
+            }
+            for (Future<long[][][]> future : futures) {
+                final long[][][] res = future.get();
+                for (int n = 0; n < res.length; n++) {
+                    for (int i = 0; i < strings.length; i++) {
+                        final List<Long> expected = find(strings[i], patterns.get(n));
+                        Assert.assertEquals(expected.size(), res[n] == null || res[n][i] == null ? 0 : res[n][i].length);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_cache() throws IOException {
+        final Random random = new Random(43);
+        final String[] strings = new String[4];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 512 + random.nextInt(512));
+        }
+        final GSSA gssa = build(strings, 8);
+        final GSSA cached = build(strings, 8);
+        final GSSACache cache = new GSSACache(16 * 1024);
+        cached.setCache(cache, "block");
+
+        String pattern = null;
+        for (int n = 0; n < 1024; n++) {
+            pattern = random(random, 1 + random.nextInt(5));
+            final long[][] res = cached.find(pattern.getBytes());
+            Assert.assertArrayEquals(gssa.find(pattern.getBytes()), res);
+            Assert.assertArrayEquals(gssa.count(pattern.getBytes()), cached.count(pattern.getBytes()));
+            Assert.assertEquals(gssa.countAll(pattern.getBytes()), cached.countAll(pattern.getBytes()));
+            if (res != null) {
+                res[0] = null; // must not corrupt the cache
+            }
+            Assert.assertTrue(cache.getSize() <= cache.getMaxSize());
+        }
+        Assert.assertTrue(cache.getHits() > 0);
+        Assert.assertTrue(cache.getEvictions() > 0);
+        
+        // the instance read again for the same block finds the cached results
+        final GSSA again = build(strings, 8);
+        again.setCache(cache, "block");
+        final long hits = cache.getHits();
+        Assert.assertArrayEquals(gssa.find(pattern.getBytes()), again.find(pattern.getBytes()));
+        Assert.assertEquals(hits + 1, cache.getHits());
+        
+        // but not the instance of another block
+        gssa.setCache(cache, "another block");
+        gssa.find(pattern.getBytes());
+        Assert.assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    public void test_smem() throws IOException {
+        final Random random = new Random(47);
+        final String[] strings = new String[6];
+        final String[] reversed = new String[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 128 + random.nextInt(256));
+            reversed[i] = new StringBuilder(strings[i]).reverse().toString();
+        }
+        final GSSA gssa = build(strings, 8);
+        final GSSA rgssa = build(reversed, 8);
+        final GSSAMaximalMatches forward = new GSSAMaximalMatches(gssa);
+        final GSSAMaximalMatches bidirectional = new GSSAMaximalMatches(new BidirectionalGSSA(gssa, rgssa.tree));
+        rgssa.index();
+
+        for (int n = 0; n < 128; n++) {
+            // the query glued from the pieces of the strings and random noise
+            final StringBuilder sb = new StringBuilder();
+            while (sb.length() < 100) {
+                final String str = strings[random.nextInt(strings.length)];
+                final int from = random.nextInt(str.length() - 30);
+                sb.append(str, from, from + 5 + random.nextInt(25)).append(random(random, random.nextInt(3)));
+            }
+            final String query = sb.toString();
+            final int min_length = random.nextInt(12);
+
+            // naive: the start of the longest match ending at every position
+            final int[] start = new int[query.length() + 2];
+            start[query.length() + 1] = Integer.MAX_VALUE;
+            for (int end = 1; end <= query.length(); end++) {
+                start[end] = end;
+                while (start[end] > 0 && contains(strings, query.substring(start[end] - 1, end))) {
+                    start[end]--;
+                }
+            }
+            final List<String> expected = new ArrayList<>();
+            for (int end = 1; end <= query.length(); end++) {
+                if (start[end] < start[end + 1] && end - start[end] >= Math.max(min_length, 1)) {
+                    expected.add(start[end] + ":" + (end - start[end]));
+                }
+            }
+
+            for (GSSAMaximalMatches mems : new GSSAMaximalMatches[] {forward, bidirectional}) {
+                final List<String> found = new ArrayList<>();
+                for (GSSAMaximalMatches.Match match : mems.find(query.getBytes(), min_length)) {
+                    found.add(match.offset + ":" + match.length);
+                    final byte[] pattern = query.substring(match.offset, match.offset + match.length).getBytes();
+                    Assert.assertEquals(gssa.countAll(pattern), match.count());
+                    Assert.assertArrayEquals(gssa.find(pattern), mems.locate(match));
+                }
+                Assert.assertEquals(expected, found);
+            }
+        }
+    }
+
+    @Test
+    public void test_degenerate() throws IOException {
+        final Random random = new Random(53);
+        final String[] strings = new String[6];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 256 + random.nextInt(512)) + "NNNN" + random(random, 64);
+        }
+        final GSSA gssa = build(strings, 8);
+        final GSSADegenerateSearch search = new GSSADegenerateSearch(gssa);
+
+        final String codes = "ACGTRYSWKMBDHVN";
+        final String[] bases = {"A", "C", "G", "T", "AG", "CT", "CG", "AT", "GT", "AC", "CGT", "AGT", "ACT", "ACG", "ACGT"};
+        for (int n = 0; n < 256; n++) {
+            final char[] chars = new char[1 + random.nextInt(8)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = codes.charAt(random.nextInt(random.nextBoolean() ? 4 : codes.length()));
+            }
+            final String pattern = new String(chars);
+
+            // naive matching of every position
+            final StringBuilder regex = new StringBuilder();
+            for (char ch : chars) {
+                regex.append('[').append(bases[codes.indexOf(ch)]).append(']');
+            }
+            final Pattern iupac = Pattern.compile(regex.toString());
+
+            final long[][] res = search.find(pattern.getBytes());
+            long total = 0;
+            for (int i = 0; i < strings.length; i++) {
+                final Matcher m = iupac.matcher(strings[i]);
+                final List<Long> expected = new ArrayList<>();
+                for (int pos = 0; m.find(pos); pos = m.start() + 1) {
+                    expected.add((long)m.start());
+                }
+                Assert.assertEquals(expected.size(), res == null || res[i] == null ? 0 : res[i].length);
+                for (int j = 0; j < expected.size(); j++) {
+                    Assert.assertEquals(expected.get(j).longValue(), res[i][j]);
+                }
+                total += expected.size();
+            }
+            Assert.assertEquals(total, search.countAll(pattern.getBytes()));
+        }
+
+        try {
+            new GSSADegenerateSearch(gssa, 4).countAll("ANRNYN".getBytes());
+            Assert.fail("the number of intervals must be limited");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void test_strands() throws IOException {
+        final Random random = new Random(59);
+        final String[] strings = new String[4];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 512 + random.nextInt(512));
+        }
+        final GSSA gssa = build(strings, 8);
+        final GSSA kmers = build(strings, 8);
+        kmers.setKmerLength(3);
+        final GSSA cached = build(strings, 8);
+        cached.setKmerLength(2);
+        cached.setCache(new GSSACache(4 * 1024));
+
+        for (int n = 0; n < 256; n++) {
+            String pattern = random(random, 1 + random.nextInt(6));
+            final String rc = new String(GSSA.reverseComplement(pattern.getBytes()));
+            switch (n % 3) {
+                case 1: pattern += rc; break; // palindrome
+                case 2: pattern = rc.substring(0, rc.length() / 2) + pattern; break;
+            }
+            final byte[] str = pattern.getBytes();
+            final byte[] rstr = GSSA.reverseComplement(str);
+            for (GSSA ssa : new GSSA[] {gssa, kmers, cached, cached}) {
+                final long[][][] res = ssa.findBothStrands(str);
+                Assert.assertArrayEquals(gssa.find(str), res[0]);
+                Assert.assertArrayEquals(gssa.find(rstr), res[1]);
+            }
+        }
+    }
+
+    @Test
+    public void test_documents() throws IOException {
+        final Random random = new Random(61);
+        for (int nstrings : new int[] {1, 2, 37}) {
+            final String[] strings = new String[nstrings];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = random(random, 1 + random.nextInt(256));
+            }
+            final GSSA gssa = build(strings, 8);
+            final GSSADocuments documents = new GSSADocuments(gssa);
+
+            for (int n = 0; n < 256; n++) {
+                final String pattern = random(random, 1 + random.nextInt(6));
+                final long[] count = gssa.count(pattern.getBytes());
+                Assert.assertArrayEquals(count, documents.count(pattern.getBytes()));
+
+                final int[] list = documents.list(pattern.getBytes());
+                Assert.assertEquals(count == null, list == null);
+                if (list != null) {
+                    int i = 0;
+                    for (int nstr = 0; nstr < count.length; nstr++) {
+                        if (count[nstr] > 0) {
+                            Assert.assertEquals(nstr, list[i++]);
+                        }
+                    }
+                    Assert.assertEquals(i, list.length);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_primitives() throws IOException {
+        final Random random = new Random(67);
+        final String[] strings = new String[5];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 256 + random.nextInt(256));
+        }
+        final GSSA gssa = build(strings, 8);
+        gssa.init();
+
+        final long[] ranks = new long[2];
+        final long[] pair = new long[2];
+        for (int n = 0; n < 256; n++) {
+            final String pattern = random(random, 1 + random.nextInt(6));
+            final long[] interval = gssa.interval();
+            boolean found = true;
+            for (int i = pattern.length() - 1; i >= 0 && found; i--) {
+                final int symbol = pattern.charAt(i);
+                gssa.occPair(symbol, interval, ranks);
+                pair[0] = interval[0] - 1;
+                pair[1] = interval[1];
+                gssa.tree.occPair(symbol, pair);
+                Assert.assertEquals(gssa.tree.occ(symbol, interval[0] - 1), pair[0]);
+                Assert.assertEquals(gssa.tree.occ(symbol, interval[1]), pair[1]);
+
+                found = gssa.backwardStep(symbol, interval);
+                Assert.assertEquals(gssa.getBucket(symbol) + ranks[0], interval[0]);
+                Assert.assertEquals(gssa.getBucket(symbol) + ranks[1] - 1, interval[1]);
+            }
+
+            final long[] expected = gssa.interval(pattern.getBytes());
+            Assert.assertEquals(expected != null, found);
+            if (found) {
+                Assert.assertArrayEquals(expected, interval);
+                for (long row = interval[0]; row <= interval[1]; row++) {
+                    final long pos = gssa.locateRow(row);
+                    final int nstr = gssa.getString(pos);
+                    Assert.assertTrue(strings[nstr].startsWith(pattern, (int)(pos - gssa.getStart(nstr))));
+                }
+            }
+        }
+        Assert.assertFalse(gssa.backwardStep(0, gssa.interval()));
+    }
+
+    @Test
+    public void test_occ() throws IOException {
+        final Random random = new Random(71);
+        final String[] strings = new String[3];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 30000 + random.nextInt(50000)) + "NNNNN";
+        }
+        final GSSA gssa = build(strings, 32);
+        final long n = gssa.getLength();
+
+        final long[] all = new long[256];
+        final long[] pair = new long[2];
+        final long[] pair2 = new long[2];
+        for (int k = 0; k < 2048; k++) {
+            final long i = random.nextInt((int)n + 1) - 1;
+            final long j = Math.min(n - 1, i + random.nextInt(k % 2 == 0 ? 600 : 100000));
+            gssa.tree.occAll(i, all);
+            for (int symbol = 0; symbol < 256; symbol++) {
+                Assert.assertEquals(gssa.tree.occ(symbol, i), all[symbol]);
+            }
+            for (int symbol : new int[] {0, 'A', 'C', 'G', 'N', 'T', 'X'}) {
+                pair[0] = i;
+                pair[1] = j;
+                gssa.tree.occPair(symbol, pair);
+                Assert.assertEquals(gssa.tree.occ(symbol, i), pair[0]);
+                Assert.assertEquals(gssa.tree.occ(symbol, j), pair[1]);
+                
+                final int symbol2 = "ACGNT".charAt(k % 5);
+                final long i2 = Math.max(-1, j - random.nextInt(1000));
+                pair[0] = i;
+                pair[1] = j;
+                pair2[0] = i2;
+                pair2[1] = j;
+                gssa.tree.occPairs(symbol, pair, symbol2, pair2);
+                Assert.assertEquals(gssa.tree.occ(symbol, i), pair[0]);
+                Assert.assertEquals(gssa.tree.occ(symbol, j), pair[1]);
+                Assert.assertEquals(gssa.tree.occ(symbol2, i2), pair2[0]);
+                Assert.assertEquals(gssa.tree.occ(symbol2, j), pair2[1]);
+            }
+        }
+    }
+
+    @Test
+    public void test_interleaved() throws IOException {
+        final Random random = new Random(73);
+        final byte[] text = (random(random, 70000) + "NNNNN").getBytes();
+        final DataSource src = new DataSource() {
+            @Override
+            public byte get(int idx) {
+                return text[idx];
+            }
+
+            @Override
+            public int length() {
+                return text.length;
+            }
+        };
+
+        final long[] counts = HuffmanShapedWaveletTree.count(src);
+        final HuffmanShapedWaveletTree ranked = new HuffmanShapedWaveletTree(src);
+        final HSWTShape shape = new HSWTShape(counts, HSWTShape.INTERLEAVED_NODES);
+
+        final ByteBuffer buf = ByteBuffer.allocate((int)shape.size);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        shape.write(buf);
+        HuffmanShapedWaveletTree.write(shape, src, buf);
+        Assert.assertFalse(buf.hasRemaining());
+        buf.rewind();
+
+        final HuffmanShapedWaveletTree tree = HuffmanShapedWaveletTree.read(
+                HSWTShape.read(buf, text.length, HSWTShape.INTERLEAVED_NODES), buf);
+
+        final long[] pair = new long[2];
+        for (int k = 0; k < 4096; k++) {
+            final long i = random.nextInt(text.length + 1) - 1;
+            final long j = Math.min(text.length - 1, i + random.nextInt(k % 2 == 0 ? 300 : 100000));
+            if (i >= 0) {
+                Assert.assertEquals(text[(int)i], tree.getSymbol(i));
+            }
+            for (int symbol : new int[] {'A', 'C', 'G', 'N', 'T'}) {
+                Assert.assertEquals(ranked.occ(symbol, j), tree.occ(symbol, j));
+                pair[0] = i;
+                pair[1] = j;
+                tree.occPair(symbol, pair);
+                Assert.assertEquals(ranked.occ(symbol, i), pair[0]);
+                Assert.assertEquals(ranked.occ(symbol, j), pair[1]);
+            }
+        }
+    }
+
+    @Test
+    public void test_select() throws IOException {
+        final Random random = new Random(79);
+        for (int density : new int[] {2, 32, 1000}) {
+            final int size = 200000 + random.nextInt(100000);
+            final RankedWTNode node = new RankedWTNode(size);
+            final List<Long> ones = new ArrayList<>();
+            final List<Long> zeros = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                final int bit = density == 1000 ? (random.nextInt(density) > 0 ? 1 : 0) :
+                                                  (random.nextInt(density) == 0 ? 1 : 0);
+                (bit == 0 ? zeros : ones).add((long)i);
+                node.put(bit);
+            }
+            node.flush();
+            node.writeSelect(null);
+            Assert.assertTrue(node.hasSelect());
+
+            for (int n = 1; n <= ones.size(); n++) {
+                Assert.assertEquals(ones.get(n - 1).longValue(), node.findOne(n));
+            }
+            for (int n = 1; n <= zeros.size(); n++) {
+                Assert.assertEquals(zeros.get(n - 1).longValue(), node.findZero(n));
+            }
+            Assert.assertEquals(-1, node.findOne(ones.size() + 1));
+            Assert.assertEquals(-1, node.findZero(zeros.size() + 1));
+        }
+
+        final String[] strings = new String[4];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 20000 + random.nextInt(20000));
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (String str : strings) {
+            sb.append(str).append('\0');
+        }
+        final byte[] text = sb.toString().getBytes();
+        final int[] sa = SAIS.suffix(ByteBuffer.wrap(text));
+
+        final ByteBuffer buf = ByteBuffer.allocate((int)GSSAIndex.getIndexSize(text.length, 3, GSSAIndex.SELECT_INDEX));
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        GSSAIndex.write(sa, 8, buf, GSSAIndex.SELECT_INDEX);
+        Assert.assertFalse(buf.hasRemaining());
+        buf.rewind();
+
+        final GSSAIndex index = new GSSAIndex(buf, text.length, 3, GSSAIndex.SELECT_INDEX);
+        Assert.assertTrue(index.hasSelect());
+        for (int i = 0; i < sa.length; i++) {
+            Assert.assertEquals(sa[i] % 8 == 0 ? sa[i] : Integer.MIN_VALUE, index.get(i));
+            if (sa[i] % 8 == 0) {
+                Assert.assertEquals(i, index.find(sa[i]));
+            }
+        }
+    }
+
+    @Test
+    public void test_containers() throws IOException {
+        final Random random = new Random(83);
+        final String[] strings = new String[3];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = random(random, 10000 + random.nextInt(30000));
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (String str : strings) {
+            sb.append(str).append('\0');
+        }
+        final byte[] text = sb.toString().getBytes();
+        final int[] sa = SAIS.suffix(ByteBuffer.wrap(text));
+
+        for (int container : new int[] {GSSAIndex.WAVELET_TREE, GSSAIndex.WAVELET_MATRIX, GSSAIndex.PACKED_ARRAY}) {
+            for (boolean select : new boolean[] {false, true}) {
+                final int options = container | (select ? GSSAIndex.SELECT_INDEX : 0);
+                final ByteBuffer buf = ByteBuffer.allocate((int)GSSAIndex.getIndexSize(text.length, 2, options));
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                GSSAIndex.write(sa, 4, buf, options);
+                Assert.assertFalse(buf.hasRemaining());
+                buf.rewind();
+
+                final GSSAIndex index = new GSSAIndex(buf, text.length, 2, options);
+                for (int i = 0; i < sa.length; i++) {
+                    Assert.assertEquals(sa[i] % 4 == 0 ? sa[i] : Integer.MIN_VALUE, index.get(i));
+                    if (sa[i] % 4 == 0) {
+                        Assert.assertEquals(i, index.find(sa[i]));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_packed() {
+        final Random random = new Random(37);
+        for (int bits = 1; bits < 64; bits++) {
+            final long[] values = new long[257];
+            final PackedArray array = new PackedArray(values.length, bits);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextLong() & ((1L << bits) - 1);
+                array.put(i, values[i]);
+            }
+            for (int i = 0; i < values.length; i++) {
+                Assert.assertEquals(values[i], array.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void test_parallel_sa() {
+        final Random random = new Random(91);
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 600000) {
+            final String str = random(random, 1000 + random.nextInt(100000));
+            // the repeats make the suffixes induced into the same block
+            sb.append(str).append(str, 0, str.length() / 2).append("NNNNNNNNNNNNNNNN").append('\0');
+        }
+        final byte[] text = sb.toString().getBytes();
+        
+        final int[] sa = SAIS.suffix(ByteBuffer.wrap(text));
+        for (int threads : new int[] {2, 3, 8}) {
+            final int[] psa = new int[text.length];
+            SAIS.suffix(ByteBuffer.wrap(text), psa, threads);
+            Assert.assertTrue(Arrays.equals(sa, psa));
+        }
+    }
+
+    @Test
+    public void test_external_sa() throws IOException {
+        final Random random = new Random(17);
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 100000) {
+            final String str = random(random, 100 + random.nextInt(10000));
+            sb.append(str).append(str, 0, str.length() / 3).append('\0');
+        }
+        final byte[] text = sb.toString().getBytes();
+
+        final int[] sa = SAIS.suffix(ByteBuffer.wrap(text));
+        for (int block : new int[] {777, 30000, text.length}) {
+            try (ExternalSuffixArray esa = new ExternalSuffixArray(ByteBuffer.wrap(text), block, null)) {
+                final PrimitiveIterator.OfInt iter = esa.iterator();
+                for (int i = 0; i < sa.length; i++) {
+                    Assert.assertEquals(sa[i], iter.nextInt());
+                }
+                
+                // the index written from the streamed suffix array is the same
+                final ByteBuffer out1 = ByteBuffer.allocate((int)GSSAIndex.getIndexSize(sa.length, 4, GSSAIndex.INVERSE_INDEX | GSSAIndex.SELECT_INDEX));
+                final ByteBuffer out2 = ByteBuffer.allocate(out1.capacity());
+                GSSAIndex.write(sa, 16, out1, GSSAIndex.INVERSE_INDEX | GSSAIndex.SELECT_INDEX);
+                GSSAIndex.write(esa.iterator(), esa.length(), 16, out2, GSSAIndex.INVERSE_INDEX | GSSAIndex.SELECT_INDEX);
+                Assert.assertTrue(Arrays.equals(out1.array(), out2.array()));
+            }
+        }
+    }
+
+    @Test
+    public void test_sampled_bwt() throws IOException {
+        final Random random = new Random(23);
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 100000) {
+            final String str = random(random, 100 + random.nextInt(10000));
+            sb.append(str).append(str, 0, str.length() / 3).append('\0');
+        }
+        final byte[] text = sb.toString().getBytes();
+
+        final int[] sa = SAIS.suffix(ByteBuffer.wrap(text));
+        final ByteBuffer out1 = ByteBuffer.allocate((int)GSSAIndex.getIndexSize(sa.length, 4, GSSAIndex.INVERSE_INDEX | GSSAIndex.PACKED_ARRAY));
+        GSSAIndex.write(sa, 16, out1, GSSAIndex.INVERSE_INDEX | GSSAIndex.PACKED_ARRAY);
+        
+        for (int block : new int[] {777, 30000, text.length}) {
+            final SampledBWT bwt = new SampledBWT(ByteBuffer.wrap(text), 16, block);
+            final DataSource src = bwt.bwt();
+            for (int i = 0; i < sa.length; i++) {
+                Assert.assertEquals(sa[i] == 0 ? text[text.length - 1] : text[sa[i] - 1], src.get(i));
+            }
+            
+            final ByteBuffer out2 = ByteBuffer.allocate(out1.capacity());
+            GSSAIndex.write(bwt.samples(), bwt.length(), 16, out2, GSSAIndex.INVERSE_INDEX | GSSAIndex.PACKED_ARRAY);
+            Assert.assertTrue(Arrays.equals(out1.array(), out2.array()));
+        }
+    }
+
+    static GSSA build(String[] strings, int sampling_rate) throws IOException {
+        return build(strings, sampling_rate, null, null);
+    }
+
+    static GSSA build(String[] strings, int sampling_rate, long[] c, long[] e) throws IOException {
+        return build(strings, sampling_rate, c, e, false);
+    }
+
+    static GSSA build(String[] strings, int sampling_rate, long[] c, long[] e, boolean inverse) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (String str : strings) {
+            sb.append(str).append('\0');
+        }
+        final byte[] text = sb.toString().getBytes();
+        final int[] sa = SAIS.suffix(ByteBuffer.wrap(text));
+
+        final HuffmanShapedWaveletTree tree = new HuffmanShapedWaveletTree(new DataSource() {
+            @Override
+            public byte get(int idx) {
+                return sa[idx] == 0 ? text[text.length - 1] : text[sa[idx] - 1];
+            }
+
+            @Override
+            public int length() {
+                return text.length;
+            }
+        });
+
+        final int sampling_factor = 31 - Integer.numberOfLeadingZeros(sampling_rate);
+        final int options = inverse ? GSSAIndex.INVERSE_INDEX : 0;
+        final ByteBuffer buf = ByteBuffer.allocate((int)GSSAIndex.getIndexSize(text.length, sampling_factor, options));
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        GSSAIndex.write(sa, sampling_rate, buf, options);
+        buf.rewind();
+
+        return new GSSA(tree, inverse ? new GSSAIndex(buf, text.length, sampling_factor, options) :
+                                        new GSSAIndex(buf, text.length), c, e);
+    }
+
+    static String random(Random random, int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = "ACGT".charAt(random.nextInt(4));
+        }
+        return new String(chars);
+    }
+
+    static boolean contains(String[] strings, String pattern) {
+        for (String str : strings) {
+            if (str.contains(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<Long> find(String str, String pattern) {
+        final List<Long> list = new ArrayList<>();
+        for (int i = str.indexOf(pattern); i >= 0; i = str.indexOf(pattern, i + 1)) {
+            list.add((long)i);
+        }
+        return list;
+    }
+
+    /**
+     * Naive approximate search where the first and the last symbols of
+     * the pattern are always aligned to the text.
+     */
+    static List<Long> find(String str, String pattern, int k, boolean edits) {
+        final List<Long> list = new ArrayList<>();
+        final int m = pattern.length();
+        for (int p = 0, n = str.length(); p < n; p++) {
+            final int first = str.charAt(p) == pattern.charAt(0) ? 0 : 1;
+            if (m == 1) {
+                if (first <= k) {
+                    list.add((long)p);
+                }
+                continue;
+            }
+            if (!edits) {
+                int z = 0;
+                for (int i = 0; i < m && z <= k; i++) {
+                    z += p + i >= n ? k + 1 : str.charAt(p + i) != pattern.charAt(i) ? 1 : 0;
+                }
+                if (z <= k) {
+                    list.add((long)p);
+                }
+                continue;
+            }
+            // edit distance between pattern[1..m-2] and str[p+1..e-1]
+            final String inner = pattern.substring(1, m - 1);
+            final int[] prev = new int[n - p];
+            final int[] curr = new int[n - p];
+            for (int j = 0; j < prev.length; j++) {
+                prev[j] = j;
+            }
+            int[] row = prev;
+            for (int i = 1; i <= inner.length(); i++) {
+                final int[] next = row == prev ? curr : prev;
+                next[0] = i;
+                for (int j = 1; j < next.length; j++) {
+                    final int sub = row[j - 1] + (inner.charAt(i - 1) == str.charAt(p + j) ? 0 : 1);
+                    next[j] = Math.min(sub, Math.min(row[j], next[j - 1]) + 1);
+                }
+                row = next;
+            }
+            for (int e = p + 1; e < n; e++) {
+                if (first + row[e - p - 1] + (str.charAt(e) == pattern.charAt(m - 1) ? 0 : 1) <= k) {
+                    list.add((long)p);
+                    break;
+                }
+            }
+        }
+        return list;
+    }
+}
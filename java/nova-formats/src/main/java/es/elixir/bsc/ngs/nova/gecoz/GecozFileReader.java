@@ -25,10 +25,14 @@
 
 package es.elixir.bsc.ngs.nova.gecoz;
 
+import es.elixir.bsc.ngs.nova.algo.ssa.BidirectionalGSSA;
 import es.elixir.bsc.ngs.nova.algo.ssa.GSSA;
+import es.elixir.bsc.ngs.nova.algo.ssa.GSSACache;
 import es.elixir.bsc.ngs.nova.algo.ssa.GSSAIndex;
 import es.elixir.bsc.ngs.nova.algo.tree.HSWTShape;
 import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree;
+import es.elixir.bsc.ngs.nova.io.LargeByteBuffer;
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -47,6 +51,12 @@ import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
@@ -58,13 +68,43 @@ import java.util.zip.DataFormatException;
 public class GecozFileReader implements Closeable  {
     
     private final Map<GecozRefBlockHeader, Long> headers;
+    private final Map<GecozRefBlockHeader, Long> ssa_headers; // null for version 1 index
 
     private final FileChannel ref_channel;
     private final FileChannel ssa_channel;
+    private final FileChannel rev_channel;
+    
+    private final String name; // the file name used in the blocks' cache keys
+    
+    // cached instances for the shared mode (null otherwise)
+    private final ConcurrentMap<GecozRefBlockHeader, Future<GSSA>> gssa_cache;
+    private final ConcurrentMap<GecozRefBlockHeader, Future<BidirectionalGSSA>> bgssa_cache;
+    
+    private volatile GSSACache results_cache; // optional cache of search results
+    private volatile int kmer_length; // the k-mers lookup table length (0 - no table)
     
     public GecozFileReader(Path path) throws IOException, DataFormatException {
+        this(path, false);
+    }
+    
+    /**
+     * Opens the gecoz file.
+     * In the shared mode the reader returns one fully initialized instance 
+     * per block which is safe to be used by many threads at once.
+     * 
+     * @param path the path to the *.gcz file
+     * @param shared whether to cache and share the read instances
+     * 
+     * @throws IOException
+     * @throws DataFormatException 
+     */
+    public GecozFileReader(Path path, boolean shared) throws IOException, DataFormatException {
+        
+        gssa_cache = shared ? new ConcurrentHashMap<>() : null;
+        bgssa_cache = shared ? new ConcurrentHashMap<>() : null;
         
         ref_channel = FileChannel.open(path, EnumSet.of(READ));
+        name = path.toAbsolutePath().normalize().toString();
         
         PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:**.gcz");
         String ssa_fname = path.getFileName().toString();
@@ -76,11 +116,15 @@ public class GecozFileReader implements Closeable  {
 
         ssa_channel = Files.isReadable(ssa_path) ? FileChannel.open(ssa_path, EnumSet.of(READ)) : null;
 
+        Path rev_path = path.resolveSibling(ssa_fname + "gcr");
+        
+        rev_channel = Files.isReadable(rev_path) ? FileChannel.open(rev_path, EnumSet.of(READ)) : null;
+
         Map<GecozRefBlockHeader, Long> _headers = new LinkedHashMap<>();
         
         long position = 0;
         do {
-            InputStream in = Channels.newInputStream(ref_channel);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(ref_channel));
             GecozRefBlockHeader header = new GecozRefBlockHeader(in);
             _headers.put(header, position);
             position += header.size;
@@ -88,6 +132,40 @@ public class GecozFileReader implements Closeable  {
         } while (position < ref_channel.size());
         
         this.headers = Collections.unmodifiableMap(_headers);
+        this.ssa_headers = ssa_channel == null ? null : readSSAHeaders();
+    }
+    
+    /**
+     * Reads the SSA block headers' positions. Since version 2 every header
+     * has the length of its index, so the blocks are found sequentially.
+     * 
+     * @return the SSA blocks' positions or null for the version 1 index file.
+     */
+    private Map<GecozRefBlockHeader, Long> readSSAHeaders() throws IOException, DataFormatException {
+        final int hlen = GecozSSABlockHeader.getBlockHeaderLength(GecozSSABlockHeader.VERSION);
+        final ByteBuffer buf = ByteBuffer.allocate(hlen);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        
+        final Map<GecozRefBlockHeader, Long> positions = new LinkedHashMap<>();
+
+        long position = 0;
+        for (GecozRefBlockHeader header : headers.keySet()) {
+            buf.clear();
+            while (buf.hasRemaining() && ssa_channel.read(buf, position + buf.position()) >= 0) {}
+            buf.flip();
+
+            GecozSSABlockHeader ssa_header = new GecozSSABlockHeader(buf);
+            if (ssa_header.version < 2) {
+                return null;
+            }
+            if (header.getHeaderHash() != ssa_header.hash) {
+                Logger.getLogger(GecozFileReader.class.getName()).log(Level.SEVERE, "unequal headers");
+                throw new DataFormatException("invalid index file");
+            }
+            positions.put(header, position);
+            position += ssa_header.getBlockLength() + ssa_header.len;
+        }
+        return positions;
     }
     
     public GecozRefBlockHeader findBlockHeader(String header) {
@@ -99,12 +177,36 @@ public class GecozFileReader implements Closeable  {
         return null;
     }
     
+    /**
+     * Sets the search results cache shared by all the blocks.
+     * The cache is used by GSSA instances read after this call.
+     * The results are kept by the file and the block position, so they
+     * are found by the instances read again for the same block.
+     * 
+     * @param cache the cache of search results (null disables caching)
+     */
+    public void setCache(GSSACache cache) {
+        results_cache = cache;
+    }
+
+    /**
+     * Sets the length of k-mers in the lookup table of the GSSA instances
+     * read after this call (see GSSA.setKmerLength()). In the shared mode 
+     * the table is built before the instance is shared.
+     * 
+     * @param k the length of k-mers (0 disables the table)
+     */
+    public void setKmerLength(int k) {
+        kmer_length = k;
+    }
+
     public Set<GecozRefBlockHeader> getBlockHeaders() {
         return Collections.unmodifiableSet(headers.keySet());
     }
 
     /**
      * Reads the Succinct Suffix Array from a disk.
+     * In the shared mode the same initialized instance is returned for the header.
      * 
      * @param header the header of the sequence to choose the SSA to read.
      * 
@@ -113,6 +215,26 @@ public class GecozFileReader implements Closeable  {
      * @throws DataFormatException 
      */
     public GSSA read(GecozRefBlockHeader header) throws IOException, DataFormatException {
+        if (gssa_cache == null) {
+            final GSSA gssa = load(header);
+            if (gssa != null) {
+                gssa.setCache(results_cache, key(header));
+                gssa.setKmerLength(kmer_length);
+            }
+            return gssa;
+        }
+        return cached(gssa_cache, header, () -> {
+            final GSSA gssa = load(header);
+            if (gssa != null) {
+                gssa.setCache(results_cache, key(header));
+                gssa.setKmerLength(kmer_length);
+                gssa.init();
+            }
+            return gssa;
+        });
+    }
+
+    private GSSA load(GecozRefBlockHeader header) throws IOException, DataFormatException {
         
         Long pos = headers.get(header);
         if (pos == null) {
@@ -120,15 +242,18 @@ public class GecozFileReader implements Closeable  {
         }
         
         final int hlen = header.getBlockHeaderLength();
-        ByteBuffer in = ref_channel.map(FileChannel.MapMode.READ_ONLY, pos + hlen, header.size - hlen);
-        in.order(ByteOrder.LITTLE_ENDIAN);
+        LargeByteBuffer in = LargeByteBuffer.map(ref_channel, FileChannel.MapMode.READ_ONLY, pos + hlen, header.size - hlen);
         
-        HSWTShape shape = HSWTShape.read(in, header.len);
+        HSWTShape shape = HSWTShape.read(in, header.len, layout(header));
                 
         HuffmanShapedWaveletTree tree = HuffmanShapedWaveletTree.read(shape, in);
         
         if (ssa_channel == null) {
-            return new GSSA(tree, null);
+            return new GSSA(tree, null, header.c, header.e);
+        }
+        
+        if (ssa_headers != null) {
+            return new GSSA(tree, readIndex(header), header.c, header.e);
         }
         
         // to be able to locate the index in the SSA file we have to recover sampling factor.
@@ -173,9 +298,134 @@ public class GecozFileReader implements Closeable  {
 
         GSSAIndex index = new GSSAIndex(ssa_idx, header.len);
 
-        return new GSSA(tree, index);
+        return new GSSA(tree, index, header.c, header.e);
+    }
+    
+    /**
+     * Reads the version 2 SSA index block.
+     * 
+     * @param header the header of the sequence to choose the index to read.
+     * 
+     * @return the SSA index
+     * @throws IOException
+     * @throws DataFormatException 
+     */
+    private GSSAIndex readIndex(GecozRefBlockHeader header) throws IOException, DataFormatException {
+        final long ssa_pos = ssa_headers.get(header);
+        final int hlen = GecozSSABlockHeader.getBlockHeaderLength(GecozSSABlockHeader.VERSION);
+        
+        ByteBuffer hbuf = ssa_channel.map(FileChannel.MapMode.READ_ONLY, ssa_pos, hlen);
+        hbuf.order(ByteOrder.LITTLE_ENDIAN);
+        GecozSSABlockHeader ssa_header = new GecozSSABlockHeader(hbuf);
+
+        final int options = ((ssa_header.flags & GecozSSABlockHeader.INVERSE_INDEX) != 0 ? GSSAIndex.INVERSE_INDEX : 0) |
+                            ((ssa_header.flags & GecozSSABlockHeader.SELECT_INDEX) != 0 ? GSSAIndex.SELECT_INDEX : 0) |
+                            ((ssa_header.flags & GecozSSABlockHeader.PACKED_SSA) != 0 ? GSSAIndex.PACKED_ARRAY :
+                             (ssa_header.flags & GecozSSABlockHeader.MATRIX_SSA) != 0 ? GSSAIndex.WAVELET_MATRIX : GSSAIndex.WAVELET_TREE);
+        if (ssa_header.len != GSSAIndex.getIndexSize(header.len, ssa_header.sampling_factor, options)) {
+            Logger.getLogger(GecozFileReader.class.getName()).log(Level.SEVERE, "unequal header lengths");
+            throw new DataFormatException("invalid index file");
+        }
+        
+        LargeByteBuffer ssa_idx = LargeByteBuffer.map(ssa_channel, FileChannel.MapMode.READ_ONLY, ssa_pos + hlen, ssa_header.len);
+
+        return new GSSAIndex(ssa_idx, header.len, ssa_header.sampling_factor, options);
+    }
+
+    /**
+     * Reads the Bidirectional Succinct Suffix Array from a disk.
+     * The reverse BWT blocks (*.gcr) have the same layout as the forward ones.
+     * 
+     * @param header the header of the sequence to choose the SSA to read.
+     * 
+     * @return the bidirectional SSA or null if there is no reverse BWT
+     * @throws IOException
+     * @throws DataFormatException 
+     */
+    public BidirectionalGSSA readBidirectional(GecozRefBlockHeader header) throws IOException, DataFormatException {
+        
+        if (rev_channel == null) {
+            return null;
+        }
+        
+        if (bgssa_cache == null) {
+            return loadBidirectional(header);
+        }
+        return cached(bgssa_cache, header, () -> loadBidirectional(header));
     }
     
+    private BidirectionalGSSA loadBidirectional(GecozRefBlockHeader header) throws IOException, DataFormatException {
+        
+        final GSSA gssa = read(header);
+        if (gssa == null) {
+            return null;
+        }
+        
+        final long pos = headers.get(header);
+        final int hlen = header.getBlockHeaderLength();
+        LargeByteBuffer in = LargeByteBuffer.map(rev_channel, FileChannel.MapMode.READ_ONLY, pos + hlen, header.size - hlen);
+        
+        HSWTShape shape = HSWTShape.read(in, header.len, layout(header));
+        
+        HuffmanShapedWaveletTree tree = HuffmanShapedWaveletTree.read(shape, in);
+        
+        return new BidirectionalGSSA(gssa, tree);
+    }
+    
+    /**
+     * @param header the block header
+     * 
+     * @return the key of the block's results in the search results cache
+     */
+    private String key(GecozRefBlockHeader header) {
+        return name + ':' + headers.get(header);
+    }
+
+    /**
+     * @param header the block header
+     * 
+     * @return the layout of the block's wavelet tree nodes
+     */
+    private static int layout(GecozRefBlockHeader header) {
+        return (header.flags & GecozRefBlockHeader.INTERLEAVED_NODES) != 0 ? 
+                HSWTShape.INTERLEAVED_NODES : HSWTShape.RANKED_NODES;
+    }
+    
+    /**
+     * Gets the instance from the cache loading it only once, 
+     * even when requested by many threads at the same time.
+     */
+    private static <T> T cached(ConcurrentMap<GecozRefBlockHeader, Future<T>> cache, 
+            GecozRefBlockHeader header, Callable<T> loader) throws IOException, DataFormatException {
+
+        Future<T> future = cache.get(header);
+        if (future == null) {
+            final FutureTask<T> task = new FutureTask<>(loader);
+            future = cache.putIfAbsent(header, task);
+            if (future == null) {
+                future = task;
+                task.run();
+            }
+        }
+        
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex.getMessage());
+        } catch (ExecutionException ex) {
+            cache.remove(header, future);
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof DataFormatException) {
+                throw (DataFormatException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     @Override
     public String toString() {
         return headers.toString();
@@ -184,7 +434,12 @@ public class GecozFileReader implements Closeable  {
     @Override
     public void close() throws IOException {
         ref_channel.close();
-        ssa_channel.close();
+        if (ssa_channel != null) {
+            ssa_channel.close();
+        }
+        if (rev_channel != null) {
+            rev_channel.close();
+        }
     }
 
     public final static boolean checkFormat(Path path) throws IOException {
@@ -26,7 +26,9 @@
 package es.elixir.bsc.ngs.nova.gecoz;
 
 import es.elixir.bsc.ngs.nova.algo.ssa.GSSAIndex;
+import es.elixir.bsc.ngs.nova.algo.string.ExternalSuffixArray;
 import es.elixir.bsc.ngs.nova.algo.string.SAIS;
+import es.elixir.bsc.ngs.nova.algo.string.SampledBWT;
 import es.elixir.bsc.ngs.nova.algo.tree.HSWTShape;
 import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree;
 import es.elixir.bsc.ngs.nova.algo.tree.HuffmanShapedWaveletTree.DataSource;
@@ -41,14 +43,15 @@ import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.io.Closeable;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -60,12 +63,63 @@ import java.util.logging.Logger;
 
 public class GecozFileWriter implements Closeable {
     
-    private ExecutorService executor;
+    /**
+     * Write the BWT of the reversed sequences (*.gcr) for the bidirectional search.
+     */
+    public final static int REVERSE_INDEX = 0x01;
+    
+    /**
+     * Write the sampled inverse suffix array into the index (*.gcx) for 
+     * the fast random access extraction.
+     */
+    public final static int INVERSE_INDEX = 0x02;
+    
+    /**
+     * Write the BWT wavelet tree nodes with rank counters interleaved with 
+     * the bits (one 64-byte line per rank, spanning at most two cache lines)
+     * instead of the compact layout.
+     */
+    public final static int INTERLEAVED_NODES = 0x04;
+    
+    /**
+     * Write the sampled select structures into the index (*.gcx) for 
+     * the fast inverse suffix array lookup.
+     */
+    public final static int SELECT_INDEX = 0x08;
+    
+    /**
+     * Keep the sparse suffix array of the index (*.gcx) in the wavelet matrix.
+     */
+    public final static int MATRIX_INDEX = 0x10;
+    
+    /**
+     * Keep the sparse suffix array of the index (*.gcx) in the packed arrays
+     * (the fastest, but twice bigger than the wavelet tree).
+     */
+    public final static int PACKED_INDEX = 0x20;
+    
+    /**
+     * Sort the suffixes of every block using the writer's threads
+     * (parallel induced sorting) instead of one thread per block.
+     * The sorting threads are shared by all the written blocks.
+     */
+    public final static int PARALLEL_SA = 0x40;
+    
+    /**
+     * Build the BWT and the sampled suffix array of every block by merging
+     * its parts, without the whole suffix array (~3n instead of 5n memory).
+     */
+    public final static int DIRECT_BWT = 0x80;
+    
+    private WriterPoolExecutor executor;
+    private final ExecutorService sorter; // the threads shared by the blocks' suffix sorting (may be null)
     
     private final FileChannel ref_channel;
     private final FileChannel ssa_channel;
+    private final FileChannel rev_channel;
     
-    private final int sampling_rate;
+    private final int options;
+    private final Settings settings; // the threads are limited by the processors
     
     public GecozFileWriter(Path path) throws IOException {
         this(path, null);
@@ -83,35 +137,56 @@ public class GecozFileWriter implements Closeable {
         this(ref_path, ssa_path, sampling_rate, 1);
     }
     
+    public GecozFileWriter(Path ref_path, Path ssa_path, int sampling_rate, int th) throws IOException {
+        this(ref_path, ssa_path, 0, new Settings(sampling_rate, th, 0));
+    }
+
     /**
      * 
      * @param ref_path
      * @param ssa_path
-     * @param sampling_rate the sampling rate for the SSA index (8,16,32...(
-     * @param th the desired number of threads to use
+     * @param options the additional indexes to write (e.g. REVERSE_INDEX)
+     * @param settings the sampling rate, the threads and the memory to use
      * @throws IOException 
      */
-    public GecozFileWriter(Path ref_path, Path ssa_path, int sampling_rate, int th) throws IOException {
+    public GecozFileWriter(Path ref_path, Path ssa_path, int options, Settings settings) throws IOException {
         ref_channel = FileChannel.open(ref_path, EnumSet.of(CREATE,READ,WRITE, TRUNCATE_EXISTING));
         
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:**.gcz");
+        String fname = ref_path.getFileName().toString();
+        if (matcher.matches(ref_path)) {
+            fname = fname.substring(0, fname.length() - 3);
+        }
+
         if (ssa_path == null) {
-            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:**.gcz");
-            String ssa_fname = ref_path.getFileName().toString();
-            if (matcher.matches(ref_path)) {
-                ssa_fname = ssa_fname.substring(0, ssa_fname.length() - 3);
-            }
-            ssa_path = ref_path.resolveSibling(ssa_fname + "gcx");
+            ssa_path = ref_path.resolveSibling(fname + "gcx");
         }
         
         ssa_channel = FileChannel.open(ssa_path, EnumSet.of(CREATE,READ,WRITE, TRUNCATE_EXISTING));
         
-        this.sampling_rate = sampling_rate;
+        if ((options & REVERSE_INDEX) != 0) {
+            rev_channel = FileChannel.open(ref_path.resolveSibling(fname + "gcr"), EnumSet.of(CREATE,READ,WRITE, TRUNCATE_EXISTING));
+        } else {
+            rev_channel = null;
+        }
+        
+        final int threads = Math.min(settings.threads, Runtime.getRuntime().availableProcessors());
         
-        final int threads = Math.min(th,Runtime.getRuntime().availableProcessors());
+        this.options = options;
+        this.settings = new Settings(settings.sampling_rate, threads, settings.max_memory);
         
         Logger.getLogger(GecozFileWriter.class.getName()).log(Level.FINER, "writer uses {0} threads\n", threads);
 
-        executor = new WriterPoolExecutor(threads);
+        // the memory which is not used yet is shared by the written blocks.
+        // it is taken once: the free heap seen later already lacks the memory
+        // of the running blocks, which the executor accounts by itself.
+        final Runtime runtime = Runtime.getRuntime();
+        final long heap = runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+
+        executor = new WriterPoolExecutor(threads, settings.max_memory > 0 ? settings.max_memory : heap);
+        
+        // every running block would otherwise sort with its own threads (threads x threads)
+        sorter = (options & PARALLEL_SA) != 0 && threads > 1 ? Executors.newFixedThreadPool(threads) : null;
     }
     
     /**
@@ -123,13 +198,35 @@ public class GecozFileWriter implements Closeable {
      */
     public void write(String[] headers, ByteBuffer in) throws IOException {
 
-        // calculate characters' frequencies
+        if (executor.getFailure() != null) {
+            throw new IOException(executor.getFailure());
+        }
+
+        // calculate characters' frequencies and find strings' terminators
         final long counts[] = new long[256];
-        for (int i = 0, n = in.limit(); i < n; i++) {
-            counts[in.get(i) & 0xFF]++;
+        final long e[] = new long[headers.length];
+        for (int i = 0, j = 0, n = in.limit(); i < n; i++) {
+            final int ch = in.get(i) & 0xFF;
+            if (ch == 0) {
+                if (j == e.length) {
+                    throw new IOException("more sequences than headers in the block");
+                }
+                e[j++] = i;
+            }
+            counts[ch]++;
+        }
+        if (counts[0] != headers.length) {
+            throw new IOException("less sequences than headers in the block");
         }
         
-        HSWTShape shape = new HSWTShape(counts);
+        // buckets' positions in the SA
+        final long c[] = new long[256];
+        for (int i = 1; i < 256; i++) {
+            c[i] = c[i - 1] + counts[i - 1];
+        }
+
+        final boolean interleaved = (options & INTERLEAVED_NODES) != 0;
+        HSWTShape shape = new HSWTShape(counts, interleaved ? HSWTShape.INTERLEAVED_NODES : HSWTShape.RANKED_NODES);
         
         // total block size
         long ref_pos = ref_channel.position();
@@ -138,24 +235,45 @@ public class GecozFileWriter implements Closeable {
         ByteBuffer out = ref_channel.map(FileChannel.MapMode.READ_WRITE, ref_pos, ref_block_size);
         out.order(ByteOrder.LITTLE_ENDIAN);
         
-        GecozRefBlockHeader ref_header = new GecozRefBlockHeader(headers, ref_block_size, in.remaining());
+        GecozRefBlockHeader ref_header = new GecozRefBlockHeader(headers, ref_block_size, in.remaining(), c, e,
+                                            interleaved ? GecozRefBlockHeader.INTERLEAVED_NODES : 0);
         ref_header.write(out);
 
         ref_channel.position(ref_pos + ref_block_size);
 
         final long idx_pos = ssa_channel.position();
-        final long idx_size = GSSAIndex.getIndexSize(in.remaining(), 31 - Integer.numberOfLeadingZeros(sampling_rate));
-        final long idx_block_size = GecozSSABlockHeader.getBlockHeaderLength() + idx_size;
+        final int sampling_factor = 31 - Integer.numberOfLeadingZeros(settings.sampling_rate);
+        final int ssa_options = ssaOptions(options);
+        final long idx_size = GSSAIndex.getIndexSize(in.remaining(), sampling_factor, ssa_options);
+        final long idx_block_size = GecozSSABlockHeader.getBlockHeaderLength(GecozSSABlockHeader.VERSION) + idx_size;
         
         ByteBuffer idx = ssa_channel.map(FileChannel.MapMode.READ_WRITE, idx_pos, idx_block_size);
         idx.order(ByteOrder.LITTLE_ENDIAN);
         
-        GecozSSABlockHeader ssa_header = new GecozSSABlockHeader(headers, idx_size);
+        GecozSSABlockHeader ssa_header = new GecozSSABlockHeader(headers, idx_size, sampling_factor,
+                                            ((ssa_options & GSSAIndex.INVERSE_INDEX) != 0 ? GecozSSABlockHeader.INVERSE_INDEX : 0) |
+                                            ((ssa_options & GSSAIndex.SELECT_INDEX) != 0 ? GecozSSABlockHeader.SELECT_INDEX : 0) |
+                                            ((ssa_options & GSSAIndex.WAVELET_MATRIX) != 0 ? GecozSSABlockHeader.MATRIX_SSA : 0) |
+                                            ((ssa_options & GSSAIndex.PACKED_ARRAY) != 0 ? GecozSSABlockHeader.PACKED_SSA : 0));
         ssa_header.write(idx);
 
         ssa_channel.position(idx_pos + idx_block_size);
 
-        executor.submit(new BlockWriter(in, out, idx, shape, sampling_rate));
+        ByteBuffer rev = null;
+        if (rev_channel != null) {
+            // the reverse block has exactly the same layout as the forward one
+            rev = rev_channel.map(FileChannel.MapMode.READ_WRITE, ref_pos, ref_block_size);
+            rev.order(ByteOrder.LITTLE_ENDIAN);
+            ref_header.write(rev);
+            rev_channel.position(ref_pos + ref_block_size);
+        }
+
+        try {
+            executor.execute(new BlockWriter(in, out, idx, rev, shape, options, settings, sorter));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex.getMessage());
+        }
     }
 
     @Override
@@ -166,64 +284,131 @@ public class GecozFileWriter implements Closeable {
         } catch (InterruptedException ex) {
             throw new IOException(ex.getMessage());
         } finally {
+            if (sorter != null) {
+                sorter.shutdown();
+            }
             ref_channel.close();
             ssa_channel.close();
+            if (rev_channel != null) {
+                rev_channel.close();
+            }
+        }
+        
+        if (executor.getFailure() != null) {
+            throw new IOException(executor.getFailure());
         }
     }
     
-    public static class WriterPoolExecutor extends ThreadPoolExecutor
-                                           implements RejectedExecutionHandler {
+    /**
+     * Converts the writer's options into the SSA index options.
+     * 
+     * @param options the writer's options (e.g. INVERSE_INDEX | MATRIX_INDEX)
+     * 
+     * @return the SSA index options (e.g. GSSAIndex.INVERSE_INDEX)
+     */
+    static int ssaOptions(int options) {
+        return ((options & INVERSE_INDEX) != 0 ? GSSAIndex.INVERSE_INDEX : 0) |
+               ((options & SELECT_INDEX) != 0 ? GSSAIndex.SELECT_INDEX : 0) |
+               ((options & PACKED_INDEX) != 0 ? GSSAIndex.PACKED_ARRAY :
+                (options & MATRIX_INDEX) != 0 ? GSSAIndex.WAVELET_MATRIX : GSSAIndex.WAVELET_TREE);
+    }
+
+    /**
+     * The writer's parameters other than the option flags.
+     */
+    public static class Settings {
+        public final int sampling_rate; // the sampling rate for the SSA index (8,16,32...)
+        public final int threads; // the desired number of threads to use
+        public final long max_memory; // the memory (in bytes) for all the threads (0 - the heap)
+        
+        /**
+         * @param sampling_rate the sampling rate for the SSA index (8,16,32...)
+         * @param threads the desired number of threads to use
+         * @param max_memory the memory (in bytes) for all the threads (0 - the heap).
+         *        The blocks which suffix array doesn't fit are sorted in the external memory.
+         *        The external sorting needs the text and ~6Mb (twice the text with 
+         *        the REVERSE_INDEX), otherwise the block fails.
+         *        The blocks are written at once only while their estimated memory fits.
+         *        When 0, the budget is the heap which is free when the writer is created,
+         *        so the memory the caller allocates afterwards is not accounted.
+         */
+        public Settings(int sampling_rate, int threads, long max_memory) {
+            this.sampling_rate = sampling_rate;
+            this.threads = threads;
+            this.max_memory = max_memory;
+        }
+    }
 
+    public static class WriterPoolExecutor extends ThreadPoolExecutor {
+
+        private final long budget; // the memory for all the running blocks
+        private long used; // the estimated memory of the running blocks
+        private volatile Throwable failure; // the first failed block's error
+        
         public WriterPoolExecutor(final int threads) {
-            super(1, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1, true));
-            setRejectedExecutionHandler(this);
+            this(threads, Runtime.getRuntime().maxMemory());
         }
 
-        @Override
-        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
-            return new BlockWriterFutureTask(runnable);
+        /**
+         * @param threads the maximum number of blocks written at once
+         * @param budget the memory (in bytes) for all the written blocks
+         */
+        public WriterPoolExecutor(final int threads, final long budget) {
+            super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+            this.budget = budget;
         }
-        
-        @Override
-        public final void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
-            if (!executor.isShutdown()) {
-                /* The queue is full (the executor has rejected the task).
-                 * Put the task in the queue directly blocking the thread
-                 * which submitted the task (called write() method).
-                 */
-                try {
-                    getQueue().put(runnable);
-                } catch (InterruptedException ex) {
-                    Thread.currentThread().interrupt();
-                    Logger.getLogger(GecozFileWriter.class.getName()).log(Level.SEVERE, null, ex);
+
+        /**
+         * Waits until the block fits the memory together with the running 
+         * ones and submits it. The block that doesn't fit even alone is 
+         * written when no other block is running.
+         * 
+         * @param writer the block to write
+         * 
+         * @throws InterruptedException 
+         */
+        public void execute(final BlockWriter writer) throws InterruptedException {
+            final long footprint = writer.footprint();
+            synchronized(this) {
+                while (used > 0 && used + footprint > budget) {
+                    wait();
                 }
+                used += footprint;
             }
+            Logger.getLogger(GecozFileWriter.class.getName()).log(Level.FINER, "block of {0} bytes is admitted (estimated memory: {1} bytes)\n", 
+                    new Object[] {writer.in.limit(), footprint});
+
+            execute(new BlockWriterFutureTask(writer, footprint));
         }
-            
+
         @Override
         public void afterExecute(Runnable runnable, Throwable th) {
             super.afterExecute(runnable, th);
 
             final BlockWriterFutureTask task = (BlockWriterFutureTask)runnable;
+            synchronized(this) {
+                used -= task.footprint;
+                notifyAll();
+            }
+            
             try {
                 task.get();
-            } catch(Exception ex) {
-                final int sz = getMaximumPoolSize() - 1;
-                if (sz == 0) {
-                    // can't process even in one thread...
-                    ex.printStackTrace(System.err);
-                    System.exit(-1);
-                }
-
-                try {
-                    getQueue().put(new BlockWriterFutureTask(task.runnable));
-                } catch (InterruptedException ex2) {
-                    Thread.currentThread().interrupt();
-                    Logger.getLogger(GecozFileWriter.class.getName()).log(Level.SEVERE, null, ex2);
+            } catch(ExecutionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause();
                 }
-                setMaximumPoolSize(sz);
+                Logger.getLogger(GecozFileWriter.class.getName()).log(Level.SEVERE, "block writing failed\n", ex.getCause());
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
         }
+        
+        /**
+         * @return the error of the first failed block or null
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
     }
 
     /**
@@ -231,9 +416,16 @@ public class GecozFileWriter implements Closeable {
      */
     public static class BlockWriterFutureTask extends FutureTask {
         final Runnable runnable;
+        final long footprint; // the estimated memory of the task
+        
         public BlockWriterFutureTask(Runnable runnable) {
+            this(runnable, 0);
+        }
+        
+        public BlockWriterFutureTask(Runnable runnable, long footprint) {
             super(runnable, null);
             this.runnable = runnable;
+            this.footprint = footprint;
         }
     }
 
@@ -242,15 +434,69 @@ public class GecozFileWriter implements Closeable {
         private final ByteBuffer in;
         private final ByteBuffer out;
         private final ByteBuffer idx;
+        private final ByteBuffer rev;
         private final HSWTShape shape;
         private final int sampling_rate;
+        private final int ssa_options; // the SSA index options (e.g. GSSAIndex.INVERSE_INDEX)
+        private final ExecutorService sorter; // the threads to sort the suffixes (null - sequential)
+        private final int threads; // the tasks the suffix sorting is split into
+        private final long memory; // the memory budget in bytes (0 - unlimited)
+        private final boolean direct; // build the BWT without the suffix array
         
         public BlockWriter(ByteBuffer in, ByteBuffer out, ByteBuffer idx, HSWTShape shape, int sampling_rate) {
+            this(in, out, idx, null, shape, 0, new Settings(sampling_rate, 1, 0), null);
+        }
+
+        /**
+         * @param in the generalized string to index
+         * @param out the buffer to write the BWT into
+         * @param idx the buffer to write the SSA index into
+         * @param rev the buffer to write the reverse BWT into (may be null)
+         * @param shape the shape of the wavelet tree
+         * @param options the writer's options (e.g. INVERSE_INDEX | PARALLEL_SA)
+         * @param settings the writer's settings (the memory is shared by its threads)
+         * @param sorter the threads shared by the blocks to sort the suffixes
+         *        with PARALLEL_SA (null - the sequential sorting)
+         */
+        public BlockWriter(ByteBuffer in, ByteBuffer out, ByteBuffer idx, ByteBuffer rev, HSWTShape shape, 
+                           int options, Settings settings, ExecutorService sorter) {
             this.in = in;
             this.out = out;
             this.idx = idx;
+            this.rev = rev;
             this.shape = shape;
-            this.sampling_rate = sampling_rate;
+            this.sampling_rate = settings.sampling_rate;
+            this.ssa_options = ssaOptions(options);
+            this.sorter = (options & PARALLEL_SA) != 0 ? sorter : null;
+            this.threads = settings.threads;
+            this.memory = settings.max_memory / settings.threads;
+            this.direct = (options & DIRECT_BWT) != 0;
+        }
+        
+        /**
+         * Estimates the peak memory of the block writing (including the text)
+         * for the construction algorithm the block is written with.
+         * The BWT nodes and the index are written into the mapped buffers,
+         * so only the suffix array and the samples are counted.
+         * 
+         * @return the estimated memory in bytes
+         */
+        public long footprint() {
+            final long n = in.limit();
+            final long samples = 4 * ((n + sampling_rate - 1) / sampling_rate) * ((ssa_options & GSSAIndex.INVERSE_INDEX) != 0 ? 2 : 1);
+            if (direct) {
+                // the BWT, the marks, the tail's wavelet tree and one block's sorting
+                final long bwt = n + n / 8 + samples + shape.size +
+                        (long)ExternalSuffixArray.BLOCK_BYTES * SampledBWT.blockSize(in.limit());
+                return n + (rev != null ? n + 2 * bwt : bwt);
+            }
+            if (memory > 0 && 5 * n > memory) {
+                // the external sorting keeps the memory budget, 
+                // but the reversed text is kept along with the original one
+                return Math.max(memory, 2 * n) + (rev != null ? n : 0) + samples;
+            }
+            // the text, the suffix array and the reversed text
+            return 5 * n + (rev != null ? n : 0) + samples;
         }
 
         @Override
@@ -258,23 +504,36 @@ public class GecozFileWriter implements Closeable {
             Logger.getLogger(GecozFileWriter.class.getName()).log(Level.FINE, "indexing {0} bytes\n", in.limit());
             
             try {
+                if (direct) {
+                    writeDirect();
+                    return;
+                }
+                if (memory > 0 && 5L * in.limit() > memory) {
+                    writeExternal();
+                    return;
+                }
+
                 final int[] sa = new int[in.limit()];
-                SAIS.suffix(in, sa);
+                SAIS.suffix(in, sa, sorter, threads);
                 
                 ExecutorService exs = Executors.newSingleThreadExecutor();
-                exs.submit(() -> {
-                    try {
-                        shape.write(out);
-                        HuffmanShapedWaveletTree.write(shape, new BWTDataSource(in, sa), out);
-                    } catch(IOException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                });
+                try {
+                    final Future<Void> tree = writeTree(exs, new BWTDataSource(in, sa), out);
+                    GSSAIndex.write(sa, sampling_rate, idx, ssa_options);
+                    join(tree);
+                } finally {
+                    exs.shutdownNow();
+                }
 
-                GSSAIndex.write(sa, sampling_rate, idx);
+                if (rev != null) {
+                    // reuse the suffix array for the reversed strings (SAIS expects it cleared)
+                    final ByteBuffer text = reverse(in);
+                    Arrays.fill(sa, 0);
+                    SAIS.suffix(text, sa, sorter, threads);
 
-                exs.shutdown();
-                exs.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+                    shape.write(rev);
+                    HuffmanShapedWaveletTree.write(shape, new BWTDataSource(text, sa), rev);
+                }
             } catch(OutOfMemoryError ex) {
                 Logger.getLogger(GecozFileWriter.class.getName()).log(Level.WARNING, "warning: low memory (free: {0} bytes)\n", Runtime.getRuntime().freeMemory());
                 throw new RuntimeException(ex);
@@ -282,6 +541,129 @@ public class GecozFileWriter implements Closeable {
                 throw new RuntimeException(ex);
             }
         }
+        
+        /**
+         * Writes the block when its suffix array (5n) doesn't fit the memory.
+         * The suffix array is kept in the temporary file and streamed 
+         * into the BWT and the SSA index.
+         * The block fails when the memory doesn't fit the external sorting
+         * (see ExternalSuffixArray.minMemory()).
+         */
+        private void writeExternal() throws IOException, InterruptedException {
+            Logger.getLogger(GecozFileWriter.class.getName()).log(Level.FINE, "sorting {0} bytes in the external memory\n", in.limit());
+
+            // the reversed strings are sorted while the original ones are kept
+            final long rev_memory = Math.max(0, memory - in.limit());
+            if (rev != null) {
+                // fail before the forward sorting (the text has the same symbols)
+                ExternalSuffixArray.blockSize(in, rev_memory);
+            }
+
+            try (ExternalSuffixArray sa = new ExternalSuffixArray(in, memory)) {
+                ExecutorService exs = Executors.newSingleThreadExecutor();
+                try {
+                    final Future<Void> tree = writeTree(exs, sa.bwt(), out);
+                    GSSAIndex.write(sa.iterator(), sa.length(), sampling_rate, idx, ssa_options);
+                    join(tree);
+                } finally {
+                    exs.shutdownNow();
+                }
+            }
+
+            if (rev != null) {
+                final ByteBuffer text = reverse(in);
+                try (ExternalSuffixArray sa = new ExternalSuffixArray(text, rev_memory)) {
+                    shape.write(rev);
+                    HuffmanShapedWaveletTree.write(shape, sa.bwt(), rev);
+                }
+            }
+        }
+
+        /**
+         * Writes the block from the BWT and the sampled suffix array which
+         * are built without the whole suffix array.
+         */
+        private void writeDirect() throws IOException, InterruptedException {
+            final SampledBWT bwt = new SampledBWT(in, sampling_rate);
+
+            ExecutorService exs = Executors.newSingleThreadExecutor();
+            try {
+                final Future<Void> tree = writeTree(exs, bwt.bwt(), out);
+                GSSAIndex.write(bwt.samples(), bwt.length(), sampling_rate, idx, ssa_options);
+                join(tree);
+            } finally {
+                exs.shutdownNow();
+            }
+
+            if (rev != null) {
+                shape.write(rev);
+                HuffmanShapedWaveletTree.write(shape, new SampledBWT(reverse(in), sampling_rate).bwt(), rev);
+            }
+        }
+        
+        /**
+         * Writes the wavelet tree of the BWT in the background
+         * while the caller writes the SSA index.
+         *
+         * @param exs the executor to write the tree with
+         * @param bwt the BWT of the block
+         * @param buf the buffer to write the tree into
+         *
+         * @return the future to join() once the SSA index is written
+         */
+        private Future<Void> writeTree(ExecutorService exs, DataSource bwt, ByteBuffer buf) {
+            return exs.submit(() -> {
+                shape.write(buf);
+                HuffmanShapedWaveletTree.write(shape, bwt, buf);
+                return null;
+            });
+        }
+
+        /**
+         * Waits for the wavelet tree and rethrows its failure,
+         * so the block is reported as failed.
+         *
+         * @param tree the future returned by writeTree()
+         */
+        private static void join(Future<Void> tree) throws IOException, InterruptedException {
+            try {
+                tree.get();
+            } catch(ExecutionException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException)cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+
+        /**
+         * Reverses every string of the generalized string in place,
+         * so the strings' terminators keep their positions.
+         * 
+         * @param in the generalized string
+         * 
+         * @return the new buffer with the reversed strings
+         */
+        private static ByteBuffer reverse(ByteBuffer in) {
+            final ByteBuffer text = ByteBuffer.allocate(in.limit());
+            for (int i = 0, start = 0, n = in.limit(); i < n; i++) {
+                final byte ch = in.get(i);
+                if (ch == 0) {
+                    for (int j = start; j < i; j++) {
+                        text.put(j, in.get(start + i - 1 - j));
+                    }
+                    start = i + 1;
+                }
+            }
+            return text;
+        }
     }
     
     /**
@@ -39,10 +39,27 @@ import java.util.zip.DataFormatException;
 public class GecozRefBlockHeader {
     public final static String MAGIC = "GecozBWT";
     
-    public final byte version = 1;
+    /**
+     * The current version of the block header.
+     * Version 2 keeps the buckets' positions (c[]) and the sorted 
+     * strings' terminators' positions (e[]) after the sequences' headers.
+     * Version 3 adds the flags of the BWT block after them.
+     */
+    public final static byte VERSION = 3;
+    
+    /**
+     * The wavelet tree nodes interleave rank counters with the bits 
+     * (see HSWTShape.INTERLEAVED_NODES).
+     */
+    public final static byte INTERLEAVED_NODES = 0x01;
+    
+    public final byte version;
     public final long size; // the block size
     public final long len;  // the length of the generalized string
     public final String[] headers;
+    public final long[] c;  // buckets' positions in the SA (null for version 1)
+    public final long[] e;  // sorted positions of '\0' terminators (null for version 1)
+    public final byte flags; // the flags of the block (0 for versions 1, 2)
     
     /**
      * Block header for the BWT which was generated from one or more sequences.
@@ -52,19 +69,63 @@ public class GecozRefBlockHeader {
      * @param len
      */
     public GecozRefBlockHeader(String[] headers, long size, long len) {
+        this(headers, size, len, null, null);
+    }
+
+    /**
+     * Block header for the BWT which was generated from one or more sequences.
+     * 
+     * @param headers a map that has sequences´ headers and their position in the chain
+     * @param size the size of the BWT block
+     * @param len the length of the generalized string
+     * @param c the buckets' positions in the SA (256 values)
+     * @param e the sorted positions of the sequences' terminators
+     */
+    public GecozRefBlockHeader(String[] headers, long size, long len, long[] c, long[] e) {
+        this(headers, size, len, c, e, 0);
+    }
+
+    /**
+     * Block header for the BWT which was generated from one or more sequences.
+     * 
+     * @param headers a map that has sequences´ headers and their position in the chain
+     * @param size the size of the BWT block
+     * @param len the length of the generalized string
+     * @param c the buckets' positions in the SA (256 values)
+     * @param e the sorted positions of the sequences' terminators
+     * @param flags the flags of the block (e.g. INTERLEAVED_NODES)
+     * 
+     * @throws IllegalArgumentException if the flags are set without c[] and e[]
+     *         (the version 1 header has no flags)
+     */
+    public GecozRefBlockHeader(String[] headers, long size, long len, long[] c, long[] e, int flags) {
+        if (flags != 0 && (c == null || e == null)) {
+            throw new IllegalArgumentException("the block flags require c[] and e[]");
+        }
         this.headers = headers;
 
         this.size = size;
         this.len = len;
+        
+        this.c = c;
+        this.e = e;
+        this.flags = (byte)flags;
+        
+        version = c == null || e == null ? 1 : VERSION;
     }
     
     public GecozRefBlockHeader(InputStream in) throws IOException, DataFormatException {
         DataInputStream dis = new DataInputStream(in);
 
-        if (dis.readLong() != 0x4765636F7A425754L |
-            dis.readByte() != version) { // "GecozBWT" v1
+        if (dis.readLong() != 0x4765636F7A425754L) { // "GecozBWT"
+            throw new DataFormatException("invalid gecoz block header");
         }
         
+        version = dis.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new DataFormatException("unsupported gecoz block version: " + version);
+        }
+
         size = Long.reverseBytes(dis.readLong());
         len = Long.reverseBytes(dis.readLong());
         
@@ -80,6 +141,22 @@ public class GecozRefBlockHeader {
         }
 
         headers = list.toArray(new String[list.size()]);
+        
+        if (version > 1) {
+            c = new long[256];
+            for (int i = 0; i < c.length; i++) {
+                c[i] = Long.reverseBytes(dis.readLong());
+            }
+            e = new long[headers.length];
+            for (int i = 0; i < e.length; i++) {
+                e[i] = Long.reverseBytes(dis.readLong());
+            }
+        } else {
+            c = null;
+            e = null;
+        }
+        
+        flags = version > 2 ? dis.readByte() : 0;
     }
     
     /**
@@ -98,6 +175,18 @@ public class GecozRefBlockHeader {
             buf.put((byte)0);
         }
         buf.put((byte)0);
+        
+        if (version > 1) {
+            for (long pos : c) {
+                buf.putLong(pos);
+            }
+            for (long pos : e) {
+                buf.putLong(pos);
+            }
+        }
+        if (version > 2) {
+            buf.put(flags);
+        }
     }
     
     public int findHeader(String header) {
@@ -110,7 +199,7 @@ public class GecozRefBlockHeader {
     }
     
     public int getBlockHeaderLength() {
-        return getBlockHeaderLength(headers);
+        return getBlockHeaderLength(headers, version);
     }
 
     public long getHeaderHash() {
@@ -128,10 +217,20 @@ public class GecozRefBlockHeader {
     }
     
     public static int getBlockHeaderLength(String[] headers) {
+        return getBlockHeaderLength(headers, VERSION);
+    }
+
+    private static int getBlockHeaderLength(String[] headers, byte version) {
         int len = 26; // 8 ('GecozBWT') + 1 (version) + 8 (size) + 8 (length) + 1 (last '\0') 
         for (String hdr : headers) {
             len += hdr.length() + 1; // '\0'
         }
+        if (version > 1) {
+            len += (256 + headers.length) * 8; // c[] + e[]
+        }
+        if (version > 2) {
+            len++; // flags
+        }
         return len;
     }
 }
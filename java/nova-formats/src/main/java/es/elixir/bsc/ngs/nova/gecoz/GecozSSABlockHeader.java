@@ -38,13 +38,60 @@ import java.util.zip.DataFormatException;
 public class GecozSSABlockHeader {
     public final static String MAGIC = "GecozSSA";
     
-    public final byte version = 1;
+    /**
+     * The current version of the block header.
+     * Version 2 keeps the sampling factor and the flags of the index, 
+     * while the length covers all index sections.
+     */
+    public final static byte VERSION = 2;
+    
+    /**
+     * The index contains the sampled inverse suffix array.
+     */
+    public final static byte INVERSE_INDEX = 0x01;
+    
+    /**
+     * The index bit vectors are followed by the sampled select structures.
+     */
+    public final static byte SELECT_INDEX = 0x02;
+    
+    /**
+     * The sparse suffix array is kept in the wavelet matrix.
+     */
+    public final static byte MATRIX_SSA = 0x04;
+    
+    /**
+     * The sparse suffix array is kept in the packed arrays.
+     * Without MATRIX_SSA or PACKED_SSA it is kept in the wavelet tree.
+     */
+    public final static byte PACKED_SSA = 0x08;
+    
+    public final byte version;
     public final long len;
     public final long hash;
+    public final byte sampling_factor; // -1 for version 1
+    public final byte flags;
     
     public GecozSSABlockHeader(String[] headers, long len) {
+        this.version = 1;
         this.len = len;
         this.hash = GecozRefBlockHeader.getBlockHeaderHash(headers);
+        this.sampling_factor = -1;
+        this.flags = 0;
+    }
+    
+    /**
+     * @param headers the sequences' headers of the block
+     * @param len the length of the index data
+     * @param sampling_factor the sampling factor of the index
+     * @param flags the sections the index contains (e.g. INVERSE_INDEX)
+     */
+    public GecozSSABlockHeader(String[] headers, long len, int sampling_factor, int flags) {
+        this.version = VERSION;
+        this.len = len;
+        this.hash = GecozRefBlockHeader.getBlockHeaderHash(headers);
+        this.sampling_factor = (byte)sampling_factor;
+        this.flags = (byte)flags;
     }
     
     public GecozSSABlockHeader(ByteBuffer buf) throws IOException, DataFormatException {
@@ -52,18 +99,32 @@ public class GecozSSABlockHeader {
             throw new EOFException();
         }
 
-        if (buf.getLong() != 0x4153537A6F636547L |
-            buf.get() != version) { // "ASSzoceG" - LITTLE ENDIAN
+        if (buf.getLong() != 0x4153537A6F636547L) { // "ASSzoceG" - LITTLE ENDIAN
             throw new DataFormatException();
         }
         
+        version = buf.get();
+        if (version < 1 || version > VERSION) {
+            throw new DataFormatException("unsupported index version: " + version);
+        }
         
         this.len = buf.getLong();
         this.hash = buf.getLong();
+        
+        if (version > 1) {
+            if (buf.remaining() < 2) {
+                throw new EOFException();
+            }
+            sampling_factor = buf.get();
+            flags = buf.get();
+        } else {
+            sampling_factor = -1;
+            flags = 0;
+        }
     }
     
     public int getBlockLength() {
-        return getBlockHeaderLength();
+        return getBlockHeaderLength(version);
     }
     
     public void write(ByteBuffer buf) {
@@ -71,9 +132,20 @@ public class GecozSSABlockHeader {
         buf.put(version);          // 1 byte
         buf.putLong(len);          // 8 bytes
         buf.putLong(hash);         // 8 bytes
+        if (version > 1) {
+            buf.put(sampling_factor); // 1 byte
+            buf.put(flags);           // 1 byte
+        }
     }
     
+    /**
+     * @return the length of the version 1 header.
+     */
     public static int getBlockHeaderLength() {
         return 25;
     }
+
+    public static int getBlockHeaderLength(byte version) {
+        return version > 1 ? 27 : 25;
+    }
 }
@@ -33,7 +33,11 @@ import es.elixir.bsc.ngs.nova.gecoz.GecozRefBlock;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -49,47 +53,50 @@ public class GecoIndex {
     }
     
     static void index(Path ipath, Path opath, Path xpath, int sampling, int threads) {
+        GecoIndex.index(ipath, opath, xpath, 0, new GecozFileWriter.Settings(sampling, threads, 0), 0);
+    }
+
+    /**
+     * @param ipath the fasta file to index
+     * @param opath the *.gcz file to write
+     * @param xpath the *.gcx index file to write (may be null)
+     * @param options the writer options (e.g. GecozFileWriter.REVERSE_INDEX)
+     * @param settings the sampling rate, the threads and the memory to use
+     * @param max_block_size the maximum block size (0 - the longest sequence)
+     */
+    static void index(Path ipath, Path opath, Path xpath, int options, GecozFileWriter.Settings settings, long max_block_size) {
 
         Logger.getLogger(GecoIndex.class.getName()).log(Level.INFO, "analysing fasta file: {0} ...\n", ipath);
 
         final long t1 = System.nanoTime();
 
-        TreeSet<GecozRefBlock> blocks = new TreeSet<>();
+        List<FastaSequence> sequences = new ArrayList<>();
         
         try {
             FastaFileReader reader = new FastaFileReader(ipath, true);
             try (FastaIterator iter = reader.iterator()) {
                 while(iter.hasNext()) {
-                    blocks.add(new GecozRefBlock(iter.next()));
+                    sequences.add(iter.next());
                 }
             }
             
-            if (blocks.isEmpty()) {
+            if (sequences.isEmpty()) {
                 Logger.getLogger(GecoIndex.class.getName()).log(Level.SEVERE, "no data found in file: {0}\n", ipath);
                 System.exit(1);
             }
 
-            final int max_size = blocks.last().size();
-            while (blocks.size() > 1) {
-                GecozRefBlock first = blocks.pollFirst();
-                GecozRefBlock second = blocks.pollFirst();
-                final int size = first.size() + second.size();
-                if (size > 0 && size <= max_size) {
-                    first.add(second.sequences);
-                    blocks.add(first);
-                } else {
-                    blocks.add(first);
-                    blocks.add(second);
-                    break;
-                }
-            }
+            final List<GecozRefBlock> blocks = plan(sequences, settings.threads, max_block_size);
+            
+            Logger.getLogger(GecoIndex.class.getName()).log(Level.FINE, "{0} sequences are packed into {1} blocks\n", 
+                    new Object[] {sequences.size(), blocks.size()});
 
-            // sort blocks to put those that have largest sequence first
+            // sort blocks to put the largest first, so the longest sorting
+            // overlaps the smaller ones admitted by the writer after it
             TreeSet<GecozRefBlock> sorted = new TreeSet(new Comparator<GecozRefBlock>() {
                 @Override
                 public int compare(GecozRefBlock o1, GecozRefBlock o2) {
-                    if (o1.sequences.first().length != o2.sequences.first().length) {
-                        return o1.sequences.first().length > o2.sequences.first().length ? -1 : 1;
+                    if (o1.size() != o2.size()) {
+                        return o1.size() > o2.size() ? -1 : 1;
                     }
                     return o1.compareTo(o2);
                 }
@@ -97,7 +104,7 @@ public class GecoIndex {
 
             sorted.addAll(blocks);
 
-            try (GecozFileWriter writer = new GecozFileWriter(opath, xpath, sampling, threads)) {
+            try (GecozFileWriter writer = new GecozFileWriter(opath, xpath, options, settings)) {
                 for (GecozRefBlock block : sorted) {
                     writeBlock(reader, writer, block);
                 }
@@ -116,6 +123,59 @@ public class GecoIndex {
         Logger.getLogger(GecoIndex.class.getName()).log(Level.INFO, "finished in {0} ms.\n", ((t2 - t1)/1000000));
     }
     
+    /**
+     * Packs the sequences into the blocks of about the same size, so the 
+     * threads are evenly loaded (LPT / first-fit-decreasing).
+     * The target block size is the total size divided by the number of 
+     * threads, but not bigger than the maximum block size.
+     * The number of blocks is rounded up to the multiple of the threads.
+     * The longest sequences are placed first, every one into the smallest 
+     * block it fits. The sequence that is longer than the maximum block 
+     * size is placed into its own block.
+     * 
+     * @param sequences the sequences to pack
+     * @param threads the number of threads
+     * @param max_block_size the maximum block size (0 - the longest sequence)
+     * 
+     * @return the blocks of sequences
+     */
+    static List<GecozRefBlock> plan(List<FastaSequence> sequences, int threads, long max_block_size) {
+        long total = 0;
+        long longest = 0;
+        for (FastaSequence seq : sequences) {
+            total += seq.length + 1; // '\0'
+            longest = Math.max(longest, seq.length + 1);
+        }
+        
+        // the block is kept in one ByteBuffer and sorted with the int[] suffix array,
+        // so the sequences longer than 2Gb can not be indexed (the reader has no such limit)
+        final long max_size = Math.min(Integer.MAX_VALUE - 8, max_block_size > 0 ? max_block_size : longest);
+        final long target = Math.max(1, Math.min(max_size, (total + threads - 1) / threads));
+        
+        // the number of blocks is a multiple of threads, so they are all busy till the end
+        final long bins = ((total + target - 1) / target + threads - 1) / threads * threads;
+        
+        final List<FastaSequence> sorted = new ArrayList<>(sequences);
+        Collections.sort(sorted); // the longest first
+
+        // the smallest block is on the top
+        final PriorityQueue<GecozRefBlock> blocks = new PriorityQueue<>();
+        for (FastaSequence seq : sorted) {
+            GecozRefBlock block = blocks.size() < bins ? null : blocks.poll();
+            if (block != null && block.size() + seq.length + 1 > max_size) {
+                blocks.add(block);
+                block = null;
+            }
+            if (block == null) {
+                block = new GecozRefBlock(seq);
+            } else {
+                block.add(seq);
+            }
+            blocks.add(block);
+        }
+        return new ArrayList<>(blocks);
+    }
+    
     private static void writeBlock(FastaFileReader reader, GecozFileWriter writer, GecozRefBlock block) throws IOException {
         
         ByteBuffer buf;
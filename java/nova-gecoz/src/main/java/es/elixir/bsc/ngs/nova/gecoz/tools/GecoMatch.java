@@ -26,6 +26,7 @@
 package es.elixir.bsc.ngs.nova.gecoz.tools;
 
 import es.elixir.bsc.ngs.nova.algo.ssa.GSSA;
+import es.elixir.bsc.ngs.nova.algo.ssa.GSSACache;
 import es.elixir.bsc.ngs.nova.gecoz.GecozFileReader;
 import es.elixir.bsc.ngs.nova.gecoz.GecozRefBlockHeader;
 import java.io.IOException;
@@ -48,16 +49,18 @@ public class GecoMatch {
      * @param ipath the path for the GecoZ file
      * @param header the sequence header where to search the pattern (or null)
      * @param pattern the pattern to search
+     * @param cache_size the memory limit for the cached search results 
+     *        (0 - no cache)
      */
-    static void match(Path ipath, String header, String pattern) {
-        match(ipath, header, pattern, true);
+    static void match(Path ipath, String header, String pattern, long cache_size) {
+        match(ipath, header, pattern, cache_size, true);
     }
     
-    static void count(Path ipath, String header, String pattern) {
-        match(ipath, header, pattern, false);
+    static void count(Path ipath, String header, String pattern, long cache_size) {
+        match(ipath, header, pattern, cache_size, false);
     }
     
-    private static void match(Path ipath, String header, String pattern, boolean match) {
+    private static void match(Path ipath, String header, String pattern, long cache_size, boolean match) {
         try {
             if (!Files.exists(ipath) || Files.isDirectory(ipath)) {
                 Logger.getLogger(GecoMatch.class.getName()).log(Level.SEVERE, "no gecoz file found: {0}\n", ipath);
@@ -76,6 +79,10 @@ public class GecoMatch {
         
         try (GecozFileReader reader = new GecozFileReader(ipath)) {
 
+            if (cache_size > 0) {
+                reader.setCache(new GSSACache(cache_size));
+            }
+
             if (header != null) {
                 GecozRefBlockHeader bheader = reader.findBlockHeader(header);
                 if (bheader == null) {
@@ -90,21 +97,27 @@ public class GecoMatch {
                 }
 
                 
-                final long t1 = System.nanoTime();
-                long[][] res = ssa.find(pattern.getBytes("UTF8"));
-                final long t2 = System.nanoTime();
+                final int nstr = bheader.findHeader(header);
 
-                if (res != null && res.length > 0) {
-                    final int nstr = bheader.findHeader(header);
-                    if (res[nstr] != null && res[nstr].length > 0) {
-                        System.out.println(">" + header + " found : " + res[nstr].length);
-                        if (match) {
+                final long t1 = System.nanoTime();
+                if (match) {
+                    long[][] res = ssa.find(pattern.getBytes("UTF8"));
+                    if (res != null && res.length > 0) {
+                        if (res[nstr] != null && res[nstr].length > 0) {
+                            System.out.println(">" + header + " found : " + res[nstr].length);
                             for (int i = 0; i < res[nstr].length; i++) {
                                 System.out.println(res[nstr][i]);
                             }
                         }
                     }
+                } else {
+                    long[] res = ssa.count(pattern.getBytes("UTF8"));
+                    if (res != null && res[nstr] > 0) {
+                        System.out.println(">" + header + " found : " + res[nstr]);
+                    }
                 }
+                final long t2 = System.nanoTime();
+
                 Logger.getLogger(GecoMatch.class.getName()).log(Level.INFO, "finished in {0} ms.", (t2 - t1)/1000000);
             } else {
                 long count = 0; // total matches counter
@@ -120,13 +133,29 @@ public class GecoMatch {
                         continue;
                     }
 
-                    long[][] res = ssa.find(pattern.getBytes("UTF8"));
+                    if (match) {
+                        long[][] res = ssa.find(pattern.getBytes("UTF8"));
 
-                    time.addAndGet(System.nanoTime() - t);
+                        time.addAndGet(System.nanoTime() - t);
 
-                    if (res != null && res.length > 0) {
-                        // print results
-                        count += print(bheader.headers, res, match);
+                        if (res != null && res.length > 0) {
+                            // print results
+                            count += print(bheader.headers, res);
+                        }
+                    } else {
+                        // the total is found from the SA interval, so only the blocks
+                        // of many sequences that contain the pattern are split by sequences
+                        final byte[] str = pattern.getBytes("UTF8");
+                        final long total = ssa.countAll(str);
+                        long[] res = total == 0 ? null : 
+                                     bheader.headers.length == 1 ? new long[] {total} : ssa.count(str);
+
+                        time.addAndGet(System.nanoTime() - t);
+
+                        if (res != null && res.length > 0) {
+                            // print counts
+                            count += print(bheader.headers, res);
+                        }
                     }
                 }
                 
@@ -140,19 +169,28 @@ public class GecoMatch {
         }
     }
     
-    private static long print(String[] headers, long[][] res, boolean match) {
+    private static long print(String[] headers, long[][] res) {
         long count = 0;
         for (int i = 0, n = res.length; i < n; i++) {
             if (res[i] != null && res[i].length > 0) {
                 count += res[i].length;
                 System.out.println(">" + headers[i] + " found : " + res[i].length);
-                if (match) {
-                    for (int j = 0; j < res[i].length; j++) {
-                        System.out.println(res[i][j]);
-                    }
+                for (int j = 0; j < res[i].length; j++) {
+                    System.out.println(res[i][j]);
                 }
             }
         }
         return count;
     }
+
+    private static long print(String[] headers, long[] res) {
+        long count = 0;
+        for (int i = 0, n = res.length; i < n; i++) {
+            if (res[i] > 0) {
+                count += res[i];
+                System.out.println(">" + headers[i] + " found : " + res[i]);
+            }
+        }
+        return count;
+    }
 }
@@ -26,6 +26,7 @@
 package es.elixir.bsc.ngs.nova.gecoz.tools;
 
 import es.elixir.bsc.ngs.nova.gecoz.GecozFileReader;
+import es.elixir.bsc.ngs.nova.gecoz.GecozFileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -48,6 +49,11 @@ import java.util.logging.Logger;
 
 public class Gecotools {
 
+    /**
+     * The default memory limit for the cached search results (64Mb).
+     */
+    private final static long CACHE_SIZE = 64L * 1024 * 1024;
+
     private final static String HELP = 
             "gecotools -i file [optional params]\n\n" +
             "parameters:\n\n" +
@@ -57,7 +63,17 @@ public class Gecotools {
             "                        (*.fa -> *.gcz, *.gcz -> *.fa, *gcz -> *.seq)\n" +
             "-c [header] 'string'  - count string occurrences in the *.gcz file\n" +
             "-s [header] 'string'  - search string in the *.gcz file\n" +
+            "-cache [size]         - the search results cache size (default = 64m, 0 - no cache) \n" +
             "-t                    - use n threads \n" +
+            "-r (--reverse)        - also write the reverse BWT (*.gcr) \n" +
+            "-isa (--inverse)      - also write the inverse SA samples (fast extraction) \n" +
+            "-il (--interleaved)   - interleave rank counters with the BWT bits (fast rank) \n" +
+            "-sel (--select)       - also write the select samples (fast SA inverse lookup) \n" +
+            "-ssa [tree|matrix|packed] - the sampled SA container (default = tree) \n" +
+            "-psa (--parallel-sa)  - sort every block's suffixes with all -t threads \n" +
+            "-mem (--max-memory) [size] - sort in the external memory over the size (e.g. 4g) \n" +
+            "-bwt (--direct-bwt)  - build the BWT without the whole suffix array (less memory) \n" +
+            "-mbs (--max-block-size) [size] - the maximum block size (default = the longest sequence) \n" +
             "-v [level]            - verbose (default = WARNING) \n\n" +
             "examples:\n\n" +
             ">java -Xmx8g -jar gecotools.jar -t 4 -i hg38.fa -o hg38.gcz\n" +
@@ -140,7 +156,49 @@ public class Gecotools {
                 List<String> idx = params.get("-idx");
                 Path xpath = idx == null || idx.isEmpty() ? null : Paths.get(idx.get(0));
                 
-                GecoIndex.index(ipath, opath, xpath, 32, th);
+                int options = 0;
+                if (params.containsKey("-r") || params.containsKey("--reverse")) {
+                    options |= GecozFileWriter.REVERSE_INDEX;
+                }
+                if (params.containsKey("-isa") || params.containsKey("--inverse")) {
+                    options |= GecozFileWriter.INVERSE_INDEX;
+                }
+                if (params.containsKey("-il") || params.containsKey("--interleaved")) {
+                    options |= GecozFileWriter.INTERLEAVED_NODES;
+                }
+                if (params.containsKey("-sel") || params.containsKey("--select")) {
+                    options |= GecozFileWriter.SELECT_INDEX;
+                }
+                if (params.containsKey("-psa") || params.containsKey("--parallel-sa")) {
+                    options |= GecozFileWriter.PARALLEL_SA;
+                }
+                if (params.containsKey("-bwt") || params.containsKey("--direct-bwt")) {
+                    options |= GecozFileWriter.DIRECT_BWT;
+                }
+                final List<String> ssa = params.get("-ssa");
+                if (ssa != null && !ssa.isEmpty()) {
+                    switch(ssa.get(0)) {
+                        case "tree": break;
+                        case "matrix": options |= GecozFileWriter.MATRIX_INDEX; break;
+                        case "packed": options |= GecozFileWriter.PACKED_INDEX; break;
+                        default: System.err.println("unknown sampled SA container: " + ssa.get(0));
+                                 System.exit(1);
+                    }
+                }
+                
+                List<String> mem = params.get("-mem");
+                if (mem == null) {
+                    mem = params.get("--max-memory");
+                }
+                final long max_memory = mem == null || mem.isEmpty() ? 0 : memory(mem.get(0));
+                
+                List<String> mbs = params.get("-mbs");
+                if (mbs == null) {
+                    mbs = params.get("--max-block-size");
+                }
+                final long max_block_size = mbs == null || mbs.isEmpty() ? 0 : memory(mbs.get(0));
+                
+                GecoIndex.index(ipath, opath, xpath, options, new GecozFileWriter.Settings(32, th, max_memory), max_block_size);
             }
         } catch(IOException ex) {
             System.err.println("error reading a file: " + ipath);
@@ -156,16 +214,17 @@ public class Gecotools {
         }
         
         final String pattern = search.size() == 1 ? search.get(0): search.get(1);
+        final long cache_size = cache(params);
 
         if (search.size() == 1) {
             Path fasta = Paths.get(pattern);
             if (Files.isRegularFile(fasta)) {
-                SimpleGFFGenerator.search(ref, fasta);
+                SimpleGFFGenerator.search(ref, fasta, cache_size);
                 return;
             }
         }
         
-        GecoMatch.match(ref, search.size() > 1 ? search.get(0) : null, pattern);
+        GecoMatch.match(ref, search.size() > 1 ? search.get(0) : null, pattern, cache_size);
 
     }
 
@@ -179,9 +238,46 @@ public class Gecotools {
         
         GecoMatch.count(ipath, 
                         count.size() > 1 ? count.get(0) : null, 
-                        count.size() == 1 ? count.get(0): count.get(1));
+                        count.size() == 1 ? count.get(0): count.get(1),
+                        cache(params));
     }
     
+    /**
+     * @return the search results cache size (-cache) or the default one
+     */
+    private static long cache(Map<String, List<String>> params) {
+        List<String> cache = params.get("-cache");
+        if (cache == null) {
+            cache = params.get("--cache");
+        }
+        return cache == null || cache.isEmpty() ? CACHE_SIZE : memory(cache.get(0));
+    }
+    
+    /**
+     * Parses the size (e.g. 512m, 4g).
+     * 
+     * @param size the size in bytes with an optional k, m or g suffix
+     * 
+     * @return the size in bytes
+     */
+    private static long memory(String size) {
+        final String s = size.toLowerCase();
+        final int shift;
+        switch(s.charAt(s.length() - 1)) {
+            case 'k': shift = 10; break;
+            case 'm': shift = 20; break;
+            case 'g': shift = 30; break;
+            default: shift = 0;
+        }
+        try {
+            return Long.parseLong(shift == 0 ? s : s.substring(0, s.length() - 1)) << shift;
+        } catch(NumberFormatException ex) {
+            System.err.println("wrong memory size: " + size);
+            System.exit(1);
+        }
+        return 0;
+    }
+
     private static void setVerbosity(List<String> verbosity) {
         Level level;
         try {
@@ -221,10 +317,29 @@ public class Gecotools {
                 case "--search":
                 case "-c":
                 case "--count":
+                case "-cache":
+                case "--cache":
                 case "-a":
                 case "--align":
                 case "-t":
                 case "--threads":
+                case "-r":
+                case "--reverse":
+                case "-isa":
+                case "--inverse":
+                case "-il":
+                case "--interleaved":
+                case "-sel":
+                case "--select":
+                case "-ssa":
+                case "-psa":
+                case "--parallel-sa":
+                case "-mem":
+                case "--max-memory":
+                case "-bwt":
+                case "--direct-bwt":
+                case "-mbs":
+                case "--max-block-size":
                 case "-v":
                 case "--verbose":
                 case "-o":
@@ -26,6 +26,7 @@
 package es.elixir.bsc.ngs.nova.gecoz.tools;
 
 import es.elixir.bsc.ngs.nova.algo.ssa.GSSA;
+import es.elixir.bsc.ngs.nova.algo.ssa.GSSACache;
 import es.elixir.bsc.ngs.nova.gecoz.GecozFileReader;
 import es.elixir.bsc.ngs.nova.gecoz.GecozRefBlockHeader;
 import java.io.BufferedReader;
@@ -34,6 +35,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 
 /**
@@ -42,10 +45,27 @@ import java.util.zip.DataFormatException;
 
 public class SimpleGFFGenerator {
     
-    public static void search(Path ref, Path fasta) {
+    /**
+     * The length of k-mers in the lookup tables for the short probes search.
+     */
+    private final static int KMER_LENGTH = 10;
+    
+    /**
+     * Searches the probes in the GecoZ file and prints them in GFF format.
+     * 
+     * @param ref the path for the GecoZ file
+     * @param fasta the path for the probes file (fasta or fastq)
+     * @param cache_size the memory limit for the cached results of repeated 
+     *        probes (0 - no cache)
+     */
+    public static void search(Path ref, Path fasta, long cache_size) {
 
         try (GecozFileReader reader = new GecozFileReader(ref)) {
             
+            final GSSACache cache = cache_size > 0 ? new GSSACache(cache_size) : null;
+            reader.setCache(cache);
+            reader.setKmerLength(KMER_LENGTH);
+
             Set<GecozRefBlockHeader> set = reader.getBlockHeaders();
             GecozRefBlockHeader[] bheaders = new GecozRefBlockHeader[set.size()];
             bheaders = set.toArray(bheaders);
@@ -84,6 +104,11 @@ public class SimpleGFFGenerator {
                     search(gssa, bheaders, header, arr);
                 }
             }
+            
+            if (cache != null) {
+                Logger.getLogger(SimpleGFFGenerator.class.getName()).log(Level.FINE, "cache hits: {0} misses: {1} evictions: {2}", 
+                        new Object[] {cache.getHits(), cache.getMisses(), cache.getEvictions()});
+            }
         } catch(IOException | DataFormatException ex) {
             System.err.println("error reading file: " + ref);
             ex.printStackTrace(System.err);
@@ -99,33 +124,24 @@ public class SimpleGFFGenerator {
             }
         }
 
-        search(gssa, bheaders, header, seq, false);
-        
-        for (int i = 0, n = seq.length - 1; i <= n;) {
-            final byte b = reverse(seq[i]);
-            seq[i++] = reverse(seq[n]);
-            seq[n--] = b;
+        // both strands are searched at once, but printed one after another
+        final long[][][][] res = new long[gssa.length][][][];
+        for (int i = 0; i < gssa.length; i++) {
+            if (gssa[i] != null) {
+                res[i] = gssa[i].findBothStrands(seq);
+            }
         }
 
-        search(gssa, bheaders, header, seq, true);
-    }
-
-    private static byte reverse(byte b) {
-        switch (b) {
-            case 'A' : return 'T';
-            case 'T' : return 'A';
-            case 'C' : return 'G';
-            case 'G' : return 'C';
-            default  : return b;
-        }
+        print(bheaders, header, seq, res, false);
+        print(bheaders, header, seq, res, true);
     }
 
-    private static void search(GSSA[] gssa, GecozRefBlockHeader[] bheaders, String header, byte[] seq, boolean reverse) throws IOException, DataFormatException {
+    private static void print(GecozRefBlockHeader[] bheaders, String header, byte[] seq, long[][][][] strands, boolean reverse) {
 
-        for (int i = 0; i < gssa.length; i++) {
+        for (int i = 0; i < strands.length; i++) {
             
-            if (gssa[i] != null) {
-                long[][] res = gssa[i].find(seq);
+            if (strands[i] != null) {
+                long[][] res = strands[i][reverse ? 1 : 0];
 
                 if (res != null) {
                     for (int j = 0; j < res.length; j++) {
@@ -29,7 +29,6 @@ import java.io.EOFException;
 import java.io.Flushable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 /**
  * @author Dmitry Repchevsky
@@ -41,12 +40,18 @@ public abstract class AbstractBitStream implements BitInputStream, BitOutputStre
     
     protected long value;
     protected byte bits_left;
-    protected ByteBuffer buf;
+    protected LargeByteBuffer buf;
     
     public AbstractBitStream(ByteBuffer buf, long size) {
+        this(LargeByteBuffer.wrap(buf), size);
+    }
+
+    /**
+     * @param buf the little endian buffer with 64-bit positions
+     * @param size the size of the stream
+     */
+    public AbstractBitStream(LargeByteBuffer buf, long size) {
         this.buf = buf;
-        this.buf.order(ByteOrder.LITTLE_ENDIAN);
-        
         this.size = size;
     }
 
@@ -56,9 +61,9 @@ public abstract class AbstractBitStream implements BitInputStream, BitOutputStre
 
     public void write(ByteBuffer out) throws IOException {
         flush();
-        final int position = buf.position();
+        final long position = buf.position();
         buf.position(0);
-        out.put(buf);
+        buf.get(out);
         buf.position(position);
     }
     
@@ -149,7 +154,7 @@ public abstract class AbstractBitStream implements BitInputStream, BitOutputStre
     @Override
     public void flush() throws IOException {
         if (bits_left > 0) {
-            final int pos = buf.position();
+            final long pos = buf.position();
             final int len = (71 - bits_left) >>> 3;
             putLong(value);
             buf.position(pos + len);
@@ -173,12 +178,12 @@ public abstract class AbstractBitStream implements BitInputStream, BitOutputStre
         if (buf.limit() - index < Long.BYTES) {
             // can't read entire Long, so read byte by byte
             long l = 0;
-            for (int i = 0, n = buf.limit(); index < n; i += 8, index++) {
-                l |= (buf.get((int)index) & 0xFFL) << i;
+            for (long i = 0, n = buf.limit(); index < n; i += 8, index++) {
+                l |= (buf.get(index) & 0xFFL) << i;
             }
             return l;
         }
-        return buf.getLong((int)index);
+        return buf.getLong(index);
     }
     
     protected void putLong(long value) {
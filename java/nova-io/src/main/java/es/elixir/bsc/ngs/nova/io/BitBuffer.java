@@ -38,8 +38,12 @@ public class BitBuffer extends AbstractBitStream {
         super(buf, buf.limit());
     }
 
+    public BitBuffer(LargeByteBuffer buf) {
+        super(buf, buf.limit());
+    }
+
     public byte get(long bitIndex) {
-        return (byte)(((buf.get((int)(bitIndex >>> 3)) & 0xFF) >> (bitIndex & 7)) & 0x01);
+        return (byte)(((buf.get(bitIndex >>> 3) & 0xFF) >> (bitIndex & 7)) & 0x01);
     }
     
     @Override
@@ -47,4 +51,4 @@ public class BitBuffer extends AbstractBitStream {
         buf.position(buf.position() - (bits_left >>> 3));
         bits_left = 0;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,491 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2016 Spanish National Bioinformatics Institute (INB) and
+ * Barcelona Supercomputing Center
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ *****************************************************************************
+ */
+
+package es.elixir.bsc.ngs.nova.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * The little endian byte buffer with 64-bit positions.
+ * </p>
+ * <p>
+ * The buffer either wraps a ByteBuffer (sharing its position and limit), 
+ * or keeps the data in 1Gb segments when it is bigger than 2Gb.
+ * </p>
+ * <p>
+ * Only reading of the blocks bigger than 2Gb is supported. The writer still
+ * keeps every block below 2^31 bytes (the block's text is one ByteBuffer,
+ * its suffix array is an int[] and its index is mapped at once).
+ * </p>
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public abstract class LargeByteBuffer {
+    
+    public final static int SEGMENT_SHIFT = 30;
+    public final static long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    
+    public abstract long position();
+    public abstract LargeByteBuffer position(long position);
+    public abstract long limit();
+    public abstract LargeByteBuffer limit(long limit);
+    public abstract long capacity();
+    
+    public long remaining() {
+        return limit() - position();
+    }
+    
+    public boolean hasRemaining() {
+        return position() < limit();
+    }
+    
+    public LargeByteBuffer rewind() {
+        return position(0);
+    }
+    
+    public abstract byte get();
+    public abstract byte get(long index);
+    public abstract short getShort(long index);
+    public abstract int getInt(long index);
+    public abstract long getLong();
+    public abstract long getLong(long index);
+    
+    public abstract LargeByteBuffer put(byte value);
+    public abstract LargeByteBuffer putShort(short value);
+    public abstract LargeByteBuffer putInt(long index, int value);
+    public abstract LargeByteBuffer putLong(long value);
+    public abstract LargeByteBuffer putLong(long index, long value);
+
+    /**
+     * Creates the buffer that shares the content from the current position
+     * to the limit.
+     * 
+     * @return the new buffer
+     */
+    public abstract LargeByteBuffer slice();
+    
+    /**
+     * Transfers the remaining bytes of this buffer into the destination.
+     * The positions of both buffers are moved.
+     * 
+     * @param dst the destination buffer
+     */
+    public abstract void get(ByteBuffer dst);
+
+    /**
+     * Wraps the ByteBuffer. The position and the limit are the ones
+     * of the ByteBuffer. The byte order is changed to LITTLE_ENDIAN.
+     * 
+     * @param buf the buffer to wrap
+     * 
+     * @return the wrapper
+     */
+    public static LargeByteBuffer wrap(ByteBuffer buf) {
+        return new Wrapped(buf);
+    }
+
+    /**
+     * Allocates the buffer on the heap.
+     * 
+     * @param size the size of the buffer in bytes
+     * 
+     * @return the buffer which is segmented when bigger than 2Gb
+     */
+    public static LargeByteBuffer allocate(long size) {
+        if (size <= Integer.MAX_VALUE) {
+            return wrap(ByteBuffer.allocate((int)size));
+        }
+        return allocate(size, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Allocates the segmented buffer on the heap whatever its size is.
+     * 
+     * @param size the size of the buffer in bytes
+     * @param shift the segment size as a power of 2 (e.g. SEGMENT_SHIFT)
+     * 
+     * @return the segmented buffer
+     */
+    static LargeByteBuffer allocate(long size, int shift) {
+        final long segment_size = 1L << shift;
+        final ByteBuffer[] segments = new ByteBuffer[(int)((size + segment_size - 1) >>> shift)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocate((int)Math.min(segment_size, size - (i * segment_size)));
+        }
+        return new Segmented(segments, shift, 0, size);
+    }
+
+    /**
+     * Maps the region of the file into memory.
+     * 
+     * @param channel the file channel
+     * @param mode the mapping mode
+     * @param position the position of the region in the file
+     * @param size the size of the region
+     * 
+     * @return the buffer which is segmented when bigger than 2Gb
+     * 
+     * @throws IOException 
+     */
+    public static LargeByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        if (size <= Integer.MAX_VALUE) {
+            return wrap(channel.map(mode, position, size));
+        }
+        final ByteBuffer[] segments = new ByteBuffer[(int)((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = channel.map(mode, position + i * SEGMENT_SIZE, Math.min(SEGMENT_SIZE, size - (i * SEGMENT_SIZE)));
+        }
+        return new Segmented(segments, SEGMENT_SHIFT, 0, size);
+    }
+    
+    private final static class Wrapped extends LargeByteBuffer {
+        
+        private final ByteBuffer buf;
+        
+        Wrapped(ByteBuffer buf) {
+            this.buf = buf;
+            this.buf.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public long position() {
+            return buf.position();
+        }
+
+        @Override
+        public LargeByteBuffer position(long position) {
+            buf.position((int)position);
+            return this;
+        }
+
+        @Override
+        public long limit() {
+            return buf.limit();
+        }
+
+        @Override
+        public LargeByteBuffer limit(long limit) {
+            if (limit > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("limit > capacity: " + limit);
+            }
+            buf.limit((int)limit);
+            return this;
+        }
+        
+        @Override
+        public long capacity() {
+            return buf.capacity();
+        }
+
+        @Override
+        public long remaining() {
+            return buf.remaining();
+        }
+
+        @Override
+        public boolean hasRemaining() {
+            return buf.hasRemaining();
+        }
+
+        @Override
+        public byte get() {
+            return buf.get();
+        }
+
+        @Override
+        public byte get(long index) {
+            return buf.get((int)index);
+        }
+
+        @Override
+        public short getShort(long index) {
+            return buf.getShort((int)index);
+        }
+
+        @Override
+        public int getInt(long index) {
+            return buf.getInt((int)index);
+        }
+
+        @Override
+        public long getLong() {
+            return buf.getLong();
+        }
+
+        @Override
+        public long getLong(long index) {
+            return buf.getLong((int)index);
+        }
+
+        @Override
+        public LargeByteBuffer put(byte value) {
+            buf.put(value);
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer putShort(short value) {
+            buf.putShort(value);
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer putInt(long index, int value) {
+            buf.putInt((int)index, value);
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer putLong(long value) {
+            buf.putLong(value);
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer putLong(long index, long value) {
+            buf.putLong((int)index, value);
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer slice() {
+            return new Wrapped(buf.slice());
+        }
+
+        @Override
+        public void get(ByteBuffer dst) {
+            dst.put(buf);
+        }
+    }
+    
+    /**
+     * The buffer over the chain of segments. All the segments except 
+     * the last one are 2^shift (SEGMENT_SIZE) long.
+     */
+    private final static class Segmented extends LargeByteBuffer {
+        
+        private final int shift; // the segment size as a power of 2
+        private final long mask; // the position in the segment
+        
+        private final ByteBuffer[] segments;
+        private final long offset; // the start of the buffer in the segments
+        private final long capacity;
+        
+        private long position;
+        private long limit;
+        
+        Segmented(ByteBuffer[] segments, int shift, long offset, long capacity) {
+            for (ByteBuffer segment : segments) {
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            this.shift = shift;
+            this.mask = (1L << shift) - 1;
+            this.segments = segments;
+            this.offset = offset;
+            this.capacity = capacity;
+            this.limit = capacity;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public LargeByteBuffer position(long position) {
+            if (position < 0 || position > limit) {
+                throw new IllegalArgumentException("invalid position: " + position);
+            }
+            this.position = position;
+            return this;
+        }
+
+        @Override
+        public long limit() {
+            return limit;
+        }
+
+        @Override
+        public LargeByteBuffer limit(long limit) {
+            if (limit < 0 || limit > capacity) {
+                throw new IllegalArgumentException("invalid limit: " + limit);
+            }
+            this.limit = limit;
+            if (position > limit) {
+                position = limit;
+            }
+            return this;
+        }
+
+        @Override
+        public long capacity() {
+            return capacity;
+        }
+
+        @Override
+        public byte get() {
+            return get(position++);
+        }
+
+        @Override
+        public byte get(long index) {
+            final long idx = offset + index;
+            return segments[(int)(idx >>> shift)].get((int)(idx & mask));
+        }
+
+        @Override
+        public short getShort(long index) {
+            final long idx = offset + index;
+            final ByteBuffer segment = segments[(int)(idx >>> shift)];
+            final int pos = (int)(idx & mask);
+            if (pos <= segment.limit() - Short.BYTES) {
+                return segment.getShort(pos);
+            }
+            return (short)((get(index) & 0xFF) | (get(index + 1) << 8));
+        }
+
+        @Override
+        public int getInt(long index) {
+            final long idx = offset + index;
+            final ByteBuffer segment = segments[(int)(idx >>> shift)];
+            final int pos = (int)(idx & mask);
+            if (pos <= segment.limit() - Integer.BYTES) {
+                return segment.getInt(pos);
+            }
+            int value = 0;
+            for (int i = 0; i < Integer.BYTES; i++) {
+                value |= (get(index + i) & 0xFF) << (i << 3);
+            }
+            return value;
+        }
+
+        @Override
+        public long getLong() {
+            final long value = getLong(position);
+            position += Long.BYTES;
+            return value;
+        }
+
+        @Override
+        public long getLong(long index) {
+            final long idx = offset + index;
+            final ByteBuffer segment = segments[(int)(idx >>> shift)];
+            final int pos = (int)(idx & mask);
+            if (pos <= segment.limit() - Long.BYTES) {
+                return segment.getLong(pos);
+            }
+            // the value crosses the segments' boundary
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                value |= (get(index + i) & 0xFFL) << (i << 3);
+            }
+            return value;
+        }
+
+        @Override
+        public LargeByteBuffer put(byte value) {
+            final long idx = offset + position++;
+            segments[(int)(idx >>> shift)].put((int)(idx & mask), value);
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer putShort(short value) {
+            put((byte)value);
+            return put((byte)(value >>> 8));
+        }
+
+        @Override
+        public LargeByteBuffer putInt(long index, int value) {
+            final long idx = offset + index;
+            final ByteBuffer segment = segments[(int)(idx >>> shift)];
+            final int pos = (int)(idx & mask);
+            if (pos <= segment.limit() - Integer.BYTES) {
+                segment.putInt(pos, value);
+            } else {
+                for (int i = 0; i < Integer.BYTES; i++, index++) {
+                    final long k = offset + index;
+                    segments[(int)(k >>> shift)].put((int)(k & mask), (byte)(value >>> (i << 3)));
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer putLong(long value) {
+            final long idx = offset + position;
+            final ByteBuffer segment = segments[(int)(idx >>> shift)];
+            final int pos = (int)(idx & mask);
+            if (pos <= segment.limit() - Long.BYTES) {
+                segment.putLong(pos, value);
+                position += Long.BYTES;
+            } else {
+                for (int i = 0; i < Long.BYTES; i++) {
+                    put((byte)(value >>> (i << 3)));
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer putLong(long index, long value) {
+            final long idx = offset + index;
+            final ByteBuffer segment = segments[(int)(idx >>> shift)];
+            final int pos = (int)(idx & mask);
+            if (pos <= segment.limit() - Long.BYTES) {
+                segment.putLong(pos, value);
+            } else {
+                for (int i = 0; i < Long.BYTES; i++, index++) {
+                    final long k = offset + index;
+                    segments[(int)(k >>> shift)].put((int)(k & mask), (byte)(value >>> (i << 3)));
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public LargeByteBuffer slice() {
+            return new Segmented(segments, shift, offset + position, limit - position);
+        }
+
+        @Override
+        public void get(ByteBuffer dst) {
+            while (position < limit) {
+                final long idx = offset + position;
+                final ByteBuffer segment = segments[(int)(idx >>> shift)].duplicate();
+                final int pos = (int)(idx & mask);
+                final int len = (int)Math.min(segment.limit() - pos, limit - position);
+                segment.limit(pos + len).position(pos);
+                dst.put(segment);
+                position += len;
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package es.elixir.bsc.ngs.nova.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The segmented buffer is tested with 16 bytes segments, so every value
+ * crosses the segments' boundaries at all possible offsets.
+ *
+ * @author Dmitry Repchevsky
+ */
+public class LargeByteBufferTest {
+
+    private final static int SHIFT = 4;
+    private final static int SIZE = 100;
+
+    @Test
+    public void getTest() {
+        final ByteBuffer ref = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final LargeByteBuffer buf = fill(ref);
+
+        for (int i = 0; i < SIZE; i++) {
+            Assert.assertEquals(ref.get(i), buf.get(i));
+        }
+        for (int i = 0; i <= SIZE - Short.BYTES; i++) {
+            Assert.assertEquals(ref.getShort(i), buf.getShort(i));
+        }
+        for (int i = 0; i <= SIZE - Integer.BYTES; i++) {
+            Assert.assertEquals(ref.getInt(i), buf.getInt(i));
+        }
+        for (int i = 0; i <= SIZE - Long.BYTES; i++) {
+            Assert.assertEquals(ref.getLong(i), buf.getLong(i));
+        }
+
+        buf.position(3);
+        for (int i = 3; i <= SIZE - Long.BYTES; i += Long.BYTES) {
+            Assert.assertEquals(ref.getLong(i), buf.getLong());
+        }
+    }
+
+    @Test
+    public void putTest() {
+        final ByteBuffer ref = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final LargeByteBuffer buf = LargeByteBuffer.allocate(SIZE, SHIFT);
+
+        final Random random = new Random(1);
+        for (int i = 0; i <= SIZE - Integer.BYTES; i++) {
+            final int value = random.nextInt();
+            ref.putInt(i, value);
+            buf.putInt(i, value);
+            assertEquals(ref, buf);
+        }
+        for (int i = 0; i <= SIZE - Long.BYTES; i++) {
+            final long value = random.nextLong();
+            ref.putLong(i, value);
+            buf.putLong(i, value);
+            assertEquals(ref, buf);
+        }
+
+        ref.position(5);
+        buf.position(5);
+        while (ref.remaining() >= Long.BYTES) {
+            final long value = random.nextLong();
+            ref.putLong(value);
+            buf.putLong(value);
+            Assert.assertEquals(ref.position(), buf.position());
+        }
+        assertEquals(ref, buf);
+    }
+
+    @Test
+    public void sliceTest() {
+        final ByteBuffer ref = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final LargeByteBuffer buf = fill(ref);
+
+        for (int off = 0; off < SIZE; off++) {
+            final LargeByteBuffer slice = buf.position(off).slice();
+            Assert.assertEquals(0, slice.position());
+            Assert.assertEquals(SIZE - off, slice.limit());
+            Assert.assertEquals(SIZE - off, slice.capacity());
+            for (int i = 0; i < SIZE - off; i++) {
+                Assert.assertEquals(ref.get(off + i), slice.get(i));
+            }
+            for (int i = 0; i <= SIZE - off - Long.BYTES; i++) {
+                Assert.assertEquals(ref.getLong(off + i), slice.getLong(i));
+            }
+
+            // the slice of the slice
+            if (slice.capacity() > 7) {
+                final LargeByteBuffer nested = slice.position(7).slice();
+                for (int i = 0; i <= nested.capacity() - Integer.BYTES; i++) {
+                    Assert.assertEquals(ref.getInt(off + 7 + i), nested.getInt(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void limitTest() {
+        final LargeByteBuffer buf = LargeByteBuffer.allocate(SIZE, SHIFT);
+
+        Assert.assertEquals(SIZE, buf.limit());
+        Assert.assertEquals(SIZE, buf.capacity());
+
+        buf.position(40).limit(30);
+        Assert.assertEquals(30, buf.limit());
+        Assert.assertEquals(30, buf.position());
+        Assert.assertFalse(buf.hasRemaining());
+
+        buf.limit(50).position(20);
+        Assert.assertEquals(30, buf.remaining());
+
+        try {
+            buf.position(60);
+            Assert.fail("position over the limit");
+        } catch(IllegalArgumentException ex) {}
+
+        try {
+            buf.limit(SIZE + 1);
+            Assert.fail("limit over the capacity");
+        } catch(IllegalArgumentException ex) {}
+    }
+
+    @Test
+    public void transferTest() {
+        final ByteBuffer ref = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final LargeByteBuffer buf = fill(ref);
+
+        buf.position(5).limit(77);
+        final ByteBuffer dst = ByteBuffer.allocate(80);
+        dst.put((byte)-1);
+        buf.get(dst);
+
+        Assert.assertEquals(77, buf.position());
+        Assert.assertEquals(73, dst.position());
+        for (int i = 5; i < 77; i++) {
+            Assert.assertEquals(ref.get(i), dst.get(i - 4));
+        }
+
+        // the transfer from the slice which starts inside the segment
+        final LargeByteBuffer slice = buf.position(21).slice();
+        dst.clear();
+        slice.get(dst);
+        Assert.assertEquals(56, dst.position());
+        for (int i = 21; i < 77; i++) {
+            Assert.assertEquals(ref.get(i), dst.get(i - 21));
+        }
+    }
+
+    /**
+     * Fills the reference buffer and the segmented one with the same
+     * random bytes.
+     *
+     * @param ref the reference buffer
+     *
+     * @return the segmented buffer rewound
+     */
+    private static LargeByteBuffer fill(ByteBuffer ref) {
+        final LargeByteBuffer buf = LargeByteBuffer.allocate(ref.capacity(), SHIFT);
+
+        final Random random = new Random(0);
+        for (int i = 0; i < ref.capacity(); i++) {
+            final byte value = (byte)random.nextInt();
+            ref.put(i, value);
+            buf.put(value);
+        }
+        return buf.rewind();
+    }
+
+    private static void assertEquals(ByteBuffer ref, LargeByteBuffer buf) {
+        for (int i = 0; i < ref.capacity(); i++) {
+            Assert.assertEquals(ref.get(i), buf.get(i));
+        }
+    }
+}